@@ -26,6 +26,7 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
@@ -53,8 +54,12 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import org.y20k.trackbook.helpers.DialogHelper;
+import org.y20k.trackbook.helpers.ImportHelper;
+import org.y20k.trackbook.helpers.IoScheduler;
 import org.y20k.trackbook.helpers.LogHelper;
 import org.y20k.trackbook.helpers.NotificationHelper;
+import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackRetention;
 import org.y20k.trackbook.helpers.TrackbookKeys;
 import org.y20k.trackbook.layout.NonSwipeableViewPager;
 
@@ -63,6 +68,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 
 /**
@@ -109,6 +115,11 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
             mPermissionsGranted = true;
         }
 
+        // compact older tracks in the background - catches up on tracks stored before the policies changed
+        if (mPermissionsGranted) {
+            TrackRetention.schedule(this);
+        }
+
         // set user agent to prevent getting banned from the osm servers
         org.osmdroid.tileprovider.constants.OpenStreetMapTileProviderConstants.setUserAgentValue(BuildConfig.APPLICATION_ID);
 
@@ -134,6 +145,10 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
     public boolean onCreateOptionsMenu(Menu menu) {
         // inflate action bar options menu
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // show state of location filter
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(this);
+        menu.findItem(R.id.action_bar_location_filter).setChecked(settings.getBoolean(PREFS_LOCATION_FILTER, false));
         return true;
     }
 
@@ -155,6 +170,15 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
                 startActivity(aboutIntent);
                 return true;
 
+            // CASE LOCATION FILTER
+            case R.id.action_bar_location_filter:
+                // toggle location filter - TrackerService reads it when a recording starts
+                item.setChecked(!item.isChecked());
+                SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(this).edit();
+                editor.putBoolean(PREFS_LOCATION_FILTER, item.isChecked());
+                editor.apply();
+                return true;
+
             // CASE MY LOCATION
             case R.id.action_bar_my_location:
                 if (mSelectedTab != FRAGMENT_ID_MAP) {
@@ -197,6 +221,14 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
     }
 
 
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        // store intent - it is handled in onResume
+        setIntent(intent);
+    }
+
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -207,6 +239,9 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
 
         // disable  broadcast receiver
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mTrackingStoppedReceiver);
+
+        // drop results of running imports - the imports themselves run to completion
+        IoScheduler.getInstance().cancelAll(this);
     }
 
 
@@ -615,6 +650,17 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
 
                 break;
 
+            case Intent.ACTION_VIEW:
+                // import GPX file - needs storage permission
+                if (mPermissionsGranted && intent.getData() != null) {
+                    importTrack(intent.getData());
+                }
+
+                // clear intent
+                intent.setAction(ACTION_DEFAULT);
+
+                break;
+
             default:
                 break;
         }
@@ -659,6 +705,50 @@ public class MainActivity extends AppCompatActivity implements TrackbookKeys {
     }
 
 
+    /* Imports GPX file behind given uri in the write lane - after pending saves - and shows the imported track */
+    private void importTrack(final Uri uri) {
+        // one job per file - importing another file does not replace a pending import
+        IoScheduler.getInstance().write(this, TASK_IMPORT_TRACK + ":" + uri.toString(), createImportTrackWork(getApplicationContext(), uri), new IoScheduler.Callback<ImportHelper.Result>() {
+            @Override
+            public void onResult(ImportHelper.Result result) {
+                if (result == null || result.getResult() == ImportHelper.RESULT_FAILED) {
+                    Toast.makeText(MainActivity.this, getString(R.string.toast_message_import_fail) + " " + uri.getLastPathSegment(), Toast.LENGTH_LONG).show();
+                    return;
+                } else if (result.getResult() == ImportHelper.RESULT_DUPLICATE) {
+                    Toast.makeText(MainActivity.this, getString(R.string.toast_message_import_duplicate) + " " + uri.getLastPathSegment(), Toast.LENGTH_LONG).show();
+                    return;
+                }
+                Toast.makeText(MainActivity.this, getString(R.string.toast_message_import_success) + " " + result.getTrack().getTrackDistance(), Toast.LENGTH_LONG).show();
+
+                // show the imported track
+                mSelectedTab = FRAGMENT_ID_TRACK;
+                mViewPager.setCurrentItem(mSelectedTab);
+            }
+        });
+    }
+
+
+    /* Creates work that imports a GPX file - static and with application context, so an import outliving the activity does not hold on to it */
+    private static Callable<ImportHelper.Result> createImportTrackWork(final Context context, final Uri uri) {
+        return new Callable<ImportHelper.Result>() {
+            @Override
+            public ImportHelper.Result call() {
+                LogHelper.v(LOG_TAG, "Importing track in background.");
+                ImportHelper.Result result = new ImportHelper(context).importGpx(new StorageHelper(context), uri);
+
+                // notify track fragment that a new track is stored - sent from here, so it is not lost if the activity is gone
+                if (result.getResult() == ImportHelper.RESULT_IMPORTED) {
+                    Intent i = new Intent();
+                    i.setAction(ACTION_TRACK_SAVE);
+                    i.putExtra(EXTRA_SAVE_FINISHED, true);
+                    LocalBroadcastManager.getInstance(context).sendBroadcast(i);
+                }
+                return result;
+            }
+        };
+    }
+
+
     /* Checks the state of External Storage */
     private void checkExternalStorageState() {
 
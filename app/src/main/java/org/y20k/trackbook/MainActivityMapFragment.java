@@ -17,20 +17,21 @@
 package org.y20k.trackbook;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.database.ContentObserver;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.LocalBroadcastManager;
@@ -48,13 +49,18 @@ import org.osmdroid.views.overlay.ItemizedIconOverlay;
 import org.osmdroid.views.overlay.compass.CompassOverlay;
 import org.osmdroid.views.overlay.compass.InternalCompassOrientationProvider;
 import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.IoScheduler;
 import org.y20k.trackbook.helpers.LocationHelper;
 import org.y20k.trackbook.helpers.LogHelper;
 import org.y20k.trackbook.helpers.MapHelper;
 import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackRetention;
 import org.y20k.trackbook.helpers.TrackbookKeys;
+import org.y20k.trackbook.layout.TrackOverlay;
+import org.y20k.trackbook.layout.TrackPathOverlay;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 
 /**
@@ -71,7 +77,10 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
     private Track mTrack;
     private boolean mFirstStart;
     private Snackbar mLocationOffBar;
-    private BroadcastReceiver mTrackUpdatedReceiver;
+    private TrackerService mTrackerService;
+    private ServiceConnection mTrackerServiceConnection;
+    private TrackerService.TrackListener mTrackListener;
+    private boolean mTrackerServiceBound;
     private SettingsContentObserver mSettingsContentObserver;
     private MapView mMapView;
     private IMapController mController;
@@ -80,7 +89,8 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
     private LocationListener mGPSListener;
     private LocationListener mNetworkListener;
     private ItemizedIconOverlay mMyLocationOverlay;
-    private ItemizedIconOverlay mTrackOverlay;
+    private TrackPathOverlay mTrackPathOverlay;
+    private TrackOverlay mTrackOverlay;
     private Location mCurrentBestLocation;
     private boolean mTrackerServiceRunning;
     private boolean mLocalTrackerRunning;
@@ -146,10 +156,9 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
         // create content observer for changes in System Settings
         mSettingsContentObserver = new SettingsContentObserver( new Handler());
 
-        // register broadcast receiver for new WayPoints
-        mTrackUpdatedReceiver = createTrackUpdatedReceiver();
-        IntentFilter trackUpdatedIntentFilter = new IntentFilter(ACTION_TRACK_UPDATED);
-        LocalBroadcastManager.getInstance(mActivity).registerReceiver(mTrackUpdatedReceiver, trackUpdatedIntentFilter);
+        // create connection to tracker service and listener for new WayPoints
+        mTrackerServiceConnection = createTrackerServiceConnection();
+        mTrackListener = createTrackListener();
     }
 
 
@@ -219,19 +228,19 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
         // load state of tracker service - see if anything changed
         loadTrackerServiceState(mActivity);
 
+        // attach to tracker service - does not start the service, connects as soon as a recording runs
+        mTrackerServiceBound = mActivity.bindService(new Intent(mActivity, TrackerService.class), mTrackerServiceConnection, 0);
+
         // CASE 1: recording active
         if (mTrackerServiceRunning) {
-            // request an updated track recording from service
-            Intent i = new Intent();
-            i.setAction(ACTION_TRACK_REQUEST);
-            LocalBroadcastManager.getInstance(mActivity).sendBroadcast(i);
+            // track is handed over when connected to tracker service
+            LogHelper.v(LOG_TAG, "Waiting for connection to tracker service.");
         }
 
         // CASE 2: recording stopped - temp file exists
         else if (mStorageHelper.tempFileExists()) {
             // load track from temp file if it exists
-            LoadTempTrackAsyncHelper loadTempTrackAsyncHelper = new LoadTempTrackAsyncHelper();
-            loadTempTrackAsyncHelper.execute();
+            loadTempTrack();
 
         // CASE 3: not recording and no temp file
         } else if (mTrack != null) {
@@ -262,6 +271,16 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
         // disable preliminary location listeners
         stopPreliminaryTracking();
 
+        // detach from tracker service
+        if (mTrackerService != null) {
+            mTrackerService.removeTrackListener(mTrackListener);
+            mTrackerService = null;
+        }
+        if (mTrackerServiceBound) {
+            mActivity.unbindService(mTrackerServiceConnection);
+            mTrackerServiceBound = false;
+        }
+
         // disable content observer for changes in System Settings
         mActivity.getContentResolver().unregisterContentObserver(mSettingsContentObserver);
     }
@@ -271,6 +290,9 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
     public void onDestroyView(){
         super.onDestroyView();
 
+        // stop loading temp track - it would be drawn on the destroyed view
+        IoScheduler.getInstance().cancel(this, TASK_LOAD_TEMP_TRACK);
+
         // deactivate map
         mMapView.onDetach();
     }
@@ -283,8 +305,8 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
         // reset first start state
         mFirstStart = true;
 
-        // disable  broadcast receivers
-        LocalBroadcastManager.getInstance(mActivity).unregisterReceiver(mTrackUpdatedReceiver);
+        // running saves complete anyway - the fragment just stops hearing about them
+        IoScheduler.getInstance().cancelAll(this);
 
         super.onDestroy();
     }
@@ -422,14 +444,15 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
 
         // clear map
         if (mTrackOverlay != null) {
+            mMapView.getOverlays().remove(mTrackPathOverlay);
             mMapView.getOverlays().remove(mTrackOverlay);
+            mTrackPathOverlay = null;
             mTrackOverlay = null;
         }
 
         if (saveTrack) {
             // save track object if requested
-            SaveTrackAsyncHelper saveTrackAsyncHelper = new SaveTrackAsyncHelper();
-            saveTrackAsyncHelper.execute();
+            saveTrack(mTrack);
             Toast.makeText(mActivity, mActivity.getString(R.string.toast_message_save_track), Toast.LENGTH_LONG).show();
         } else {
             // clear track object and delete temp file
@@ -440,6 +463,80 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
     }
 
 
+    /* Saves given track in the write lane - the track object is cleared afterwards */
+    private void saveTrack(@Nullable final Track track) {
+        // no track: the work still runs, so the save-finished broadcast is sent
+        String key = track == null ? TASK_SAVE_TRACK : TASK_SAVE_TRACK + ":" + track.getRecordingStart().getTime();
+        IoScheduler.getInstance().write(this, key, createSaveTrackWork(mActivity.getApplicationContext(), track), new IoScheduler.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean success) {
+                LogHelper.v(LOG_TAG, "Saving finished.");
+                // clear track object - unless a new recording has replaced it in the meantime
+                if (mTrack == track) {
+                    mTrack = null;
+                }
+            }
+        });
+    }
+
+
+    /* Loads track from temp file in the read lane and draws it */
+    private void loadTempTrack() {
+        IoScheduler.getInstance().read(this, TASK_LOAD_TEMP_TRACK, createLoadTempTrackWork(mActivity.getApplicationContext()), new IoScheduler.Callback<Track>() {
+            @Override
+            public void onResult(Track track) {
+                LogHelper.v(LOG_TAG, "Loading finished.");
+                mTrack = track;
+
+                // draw track on map
+                if (mTrack != null) {
+                    drawTrackOverlay(mTrack);
+                }
+
+                // delete temp file
+                mStorageHelper.deleteTempFile();
+            }
+        });
+    }
+
+
+    /* Creates work that saves a track - static and with application context, so a save outliving the fragment does not hold on to it */
+    private static Callable<Boolean> createSaveTrackWork(final Context context, final Track track) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                LogHelper.v(LOG_TAG, "Saving track object in background.");
+                StorageHelper storageHelper = new StorageHelper(context);
+
+                // save track object
+                boolean success = storageHelper.saveTrack(track, FILE_MOST_CURRENT_TRACK);
+
+                // compact older tracks if necessary - a new file has been added, runs after this save
+                TrackRetention.schedule(context);
+
+                // notify track fragment that save is finished - sent from here, so it is not lost if this fragment is gone
+                Intent i = new Intent();
+                i.setAction(ACTION_TRACK_SAVE);
+                i.putExtra(EXTRA_SAVE_FINISHED, true);
+                LocalBroadcastManager.getInstance(context).sendBroadcast(i);
+                return success;
+            }
+        };
+    }
+
+
+    /* Creates work that loads the temp track - static, so it does not hold on to the fragment */
+    private static Callable<Track> createLoadTempTrackWork(final Context context) {
+        return new Callable<Track>() {
+            @Override
+            public Track call() {
+                LogHelper.v(LOG_TAG, "Loading temporary track object in background.");
+                return new StorageHelper(context).loadTrack(FILE_TEMP_TRACK);
+            }
+        };
+    }
+
+
     /* Start preliminary tracking for map */
     private void startPreliminaryTracking() {
         if (mLocationSystemSetting && !mLocalTrackerRunning) {
@@ -512,11 +609,21 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
 
     /* Draws track onto overlay */
     private void drawTrackOverlay(Track track) {
-        mMapView.getOverlays().remove(mTrackOverlay);
-        mTrackOverlay = null;
-        if (track != null) {
+        if (track == null) {
+            mMapView.getOverlays().remove(mTrackPathOverlay);
+            mMapView.getOverlays().remove(mTrackOverlay);
+            mTrackPathOverlay = null;
+            mTrackOverlay = null;
+        } else if (mTrackOverlay != null) {
+            // append new WayPoints to existing overlays
+            mTrackPathOverlay.update(track, mTrackerServiceRunning);
+            mTrackOverlay.update(track, mTrackerServiceRunning);
+            mMapView.invalidate();
+        } else {
             LogHelper.v(LOG_TAG, "Drawing track overlay.");
+            mTrackPathOverlay = MapHelper.createTrackPathOverlay(mActivity, track, mTrackerServiceRunning);
             mTrackOverlay = MapHelper.createTrackOverlay(mActivity, track, mTrackerServiceRunning);
+            mMapView.getOverlays().add(mTrackPathOverlay);
             mMapView.getOverlays().add(mTrackOverlay);
         }
     }
@@ -547,23 +654,60 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
     }
 
 
-    /* Creates receiver for new WayPoints */
-    private BroadcastReceiver createTrackUpdatedReceiver() {
-        return new BroadcastReceiver() {
+    /* Creates connection to tracker service */
+    private ServiceConnection createTrackerServiceConnection() {
+        return new ServiceConnection() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                if (intent.hasExtra(EXTRA_TRACK) && intent.hasExtra(EXTRA_LAST_LOCATION)) {
-                    LogHelper.v(LOG_TAG, "Track update received.");
-                    // draw track on map
-                    mTrack = intent.getParcelableExtra(EXTRA_TRACK);
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                LogHelper.v(LOG_TAG, "Connected to tracker service.");
+                mTrackerService = ((TrackerService.LocalBinder) binder).getService();
+                mTrackerService.addTrackListener(mTrackListener);
+                // draw track recorded so far
+                if (mTrackerService.isTracking() && mTrackerService.getTrack() != null) {
+                    mTrack = mTrackerService.getTrack();
                     drawTrackOverlay(mTrack);
-                    // center map over last location
-                    mCurrentBestLocation = intent.getParcelableExtra(EXTRA_LAST_LOCATION);
+                    mCurrentBestLocation = mTrackerService.getCurrentBestLocation();
                     mController.setCenter(convertToGeoPoint(mCurrentBestLocation));
-                    // clear intent
-                    intent.setAction(ACTION_DEFAULT);
                 }
             }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                LogHelper.v(LOG_TAG, "Disconnected from tracker service.");
+                mTrackerService = null;
+            }
+        };
+    }
+
+
+    /* Creates listener for new WayPoints */
+    private TrackerService.TrackListener createTrackListener() {
+        return new TrackerService.TrackListener() {
+            @Override
+            public void onWayPointAdded(Track track, Location lastLocation) {
+                LogHelper.v(LOG_TAG, "Track update received.");
+                // draw track on map
+                mTrack = track;
+                drawTrackOverlay(mTrack);
+                // center map over last location
+                mCurrentBestLocation = lastLocation;
+                mController.setCenter(convertToGeoPoint(mCurrentBestLocation));
+            }
+
+            @Override
+            public void onStopOver(Track track, int index) {
+                // stopover marker is drawn together with the new WayPoint
+            }
+
+            @Override
+            public void onStepCountChanged(Track track) {
+                // step count is not shown on map
+            }
+
+            @Override
+            public void onTrackingStopped(Track track) {
+                mTrack = track;
+            }
         };
     }
 
@@ -623,68 +767,4 @@ public class MainActivityMapFragment extends Fragment implements TrackbookKeys {
 
     }
 
-
-    /**
-     * Inner class: Saves track to external storage using AsyncTask
-     */
-    private class SaveTrackAsyncHelper extends AsyncTask<Void, Void, Void> {
-
-        @Override
-        protected Void doInBackground(Void... voids) {
-            LogHelper.v(LOG_TAG, "Saving track object in background.");
-            // save track object
-            mStorageHelper.saveTrack(mTrack, FILE_MOST_CURRENT_TRACK);
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
-            // clear track object
-            LogHelper.v(LOG_TAG, "Saving finished.");
-            mTrack = null;
-
-            // notify track fragment that save is finished
-            Intent i = new Intent();
-            i.setAction(ACTION_TRACK_SAVE);
-            i.putExtra(EXTRA_SAVE_FINISHED, true);
-            LocalBroadcastManager.getInstance(mActivity).sendBroadcast(i);
-        }
-    }
-    /**
-     * End of inner class
-     */
-
-
-    /**
-     * Inner class: Loads track from external storage using AsyncTask
-     */
-    private class LoadTempTrackAsyncHelper extends AsyncTask<Void, Void, Void> {
-
-        @Override
-        protected Void doInBackground(Void... voids) {
-            LogHelper.v(LOG_TAG, "Loading temporary track object in background.");
-            // load track object
-            mTrack = mStorageHelper.loadTrack(FILE_TEMP_TRACK);
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
-            LogHelper.v(LOG_TAG, "Loading finished.");
-
-            // draw track on map
-            if (mTrack != null) {
-                drawTrackOverlay(mTrack);
-            }
-
-            // delete temp file
-            mStorageHelper.deleteTempFile();
-        }
-    }
-    /**
-     * End of inner class
-     */
-
-}
\ No newline at end of file
+}
@@ -17,13 +17,16 @@
 package org.y20k.trackbook;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.location.Location;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.BottomSheetBehavior;
@@ -44,21 +47,32 @@ import org.osmdroid.api.IMapController;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
-import org.osmdroid.views.overlay.ItemizedIconOverlay;
 import org.osmdroid.views.overlay.compass.CompassOverlay;
 import org.osmdroid.views.overlay.compass.InternalCompassOrientationProvider;
 import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.TrackBundle;
 import org.y20k.trackbook.helpers.DialogHelper;
 import org.y20k.trackbook.helpers.DropdownAdapter;
 import org.y20k.trackbook.helpers.ExportHelper;
+import org.y20k.trackbook.helpers.GeoJsonWriter;
+import org.y20k.trackbook.helpers.GpxWriter;
+import org.y20k.trackbook.helpers.IoScheduler;
+import org.y20k.trackbook.helpers.KmlWriter;
 import org.y20k.trackbook.helpers.LogHelper;
 import org.y20k.trackbook.helpers.MapHelper;
 import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackCache;
+import org.y20k.trackbook.helpers.TrackWriter;
 import org.y20k.trackbook.helpers.TrackbookKeys;
+import org.y20k.trackbook.layout.TrackOverlay;
+import org.y20k.trackbook.layout.TrackPathOverlay;
 
 import java.io.File;
 import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 
 /**
@@ -76,7 +90,8 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     private MapView mMapView;
     private LinearLayout mOnboardingView;
     private IMapController mController;
-    private ItemizedIconOverlay mTrackOverlay;
+    private TrackPathOverlay mTrackPathOverlay;
+    private TrackOverlay mTrackOverlay;
     private DropdownAdapter mDropdownAdapter;
     private LinearLayout mTrackManagementLayout;
     private Spinner mDropdown;
@@ -88,8 +103,10 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     private TextView mRecordingStopView;
     private BottomSheetBehavior mStatisticsSheetBehavior;
     private int mCurrentTrack;
+    private boolean mTrackBundlesLoaded;
     private Track mTrack;
     private BroadcastReceiver mTrackSavedReceiver;
+    private ExportProgress mExportProgress;
 
 
     @Override
@@ -120,13 +137,7 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
                     LogHelper.v(LOG_TAG, "Save operation detected. Start loading the new track.");
 
                     // update dropdown menu (and load track in onItemSelected)
-                    mDropdownAdapter.refresh();
-                    mDropdownAdapter.notifyDataSetChanged();
-                    mDropdown.setAdapter(mDropdownAdapter);
-                    mDropdown.setSelection(0, true);
-
-                    // remove onboarding if necessary
-                    switchOnboardingLayout();
+                    loadTrackBundles(true);
                 }
             }
         };
@@ -184,6 +195,7 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
         ImageButton exportButton = (ImageButton) mRootView.findViewById(R.id.export_button);
         ImageButton deleteButton = (ImageButton) mRootView.findViewById(R.id.delete_button);
         exportButton.setOnClickListener(getExportButtonListener());
+        exportButton.setOnLongClickListener(getExportAllButtonListener());
         deleteButton.setOnClickListener(getDeleteButtonListener());
 
         // get views for statistics sheet
@@ -203,8 +215,7 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
             displayTrack();
         } else if (mTrack == null) {
             // load track and display map and statistics
-            LoadTrackAsyncHelper loadTrackAsyncHelper = new LoadTrackAsyncHelper();
-            loadTrackAsyncHelper.execute();
+            loadTrack(null);
         } else {
             // just display map and statistics
             displayTrack();
@@ -234,6 +245,9 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
         super.onViewCreated(view, savedInstanceState);
         mDropdown.setAdapter(mDropdownAdapter);
         mDropdown.setOnItemSelectedListener(this);
+
+        // fill dropdown menu
+        loadTrackBundles(false);
     }
 
 
@@ -255,6 +269,14 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     public void onDestroyView(){
         super.onDestroyView();
 
+        // stop running export - its progress dialog is bound to the view
+        if (mExportProgress != null) {
+            mExportProgress.cancel();
+        }
+
+        // stop pending loads - their results would be displayed in the destroyed view
+        IoScheduler.getInstance().cancelAll(this);
+
         // deactivate map
         mMapView.onDetach();
     }
@@ -276,9 +298,22 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
         // update current track
         mCurrentTrack = i;
 
-        // load track and display map and statistics
-        LoadTrackAsyncHelper loadTrackAsyncHelper = new LoadTrackAsyncHelper();
-        loadTrackAsyncHelper.execute(i);
+        // show statistics from track catalog right away
+        TrackBundle trackBundle = mDropdownAdapter.getItem(i);
+        displayStatistics(trackBundle.getTrackDistance(), trackBundle.getStepCount(), trackBundle.getSize(), trackBundle.getTrackDuration(),
+                trackBundle.getRecordingStart(), trackBundle.getRecordingStop());
+
+        // display cached track right away - or load track and display map and statistics
+        Track cachedTrack = TrackCache.getInstance().peekTrack(trackBundle.getTrackFile());
+        if (cachedTrack != null) {
+            // a load for a previous selection must not replace this track
+            IoScheduler.getInstance().cancel(this, TASK_LOAD_TRACK);
+            mTrack = cachedTrack;
+            displayTrack();
+            prewarmAdjacentTracks(i);
+        } else {
+            loadTrack(trackBundle.getTrackFile());
+        }
     }
 
     @Override
@@ -311,9 +346,10 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
                 break;
             case RESULT_EXPORT_DIALOG:
                 if (resultCode == Activity.RESULT_OK) {
-                    // User chose EXPORT
-                    ExportHelper exportHelper = new ExportHelper(mActivity);
-                    exportHelper.exportToGpx(mTrack);
+                    // User chose EXPORT - write GPX file in background
+                    if (mTrack != null && mExportProgress == null) {
+                        exportTrack(mTrack);
+                    }
                 } else if (resultCode == Activity.RESULT_CANCELED){
                     // User chose CANCEL
                     LogHelper.v(LOG_TAG, "Export to GPX: User chose CANCEL.");
@@ -323,6 +359,144 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     }
 
 
+    /* Loads list of tracks from the catalog in the read lane and fills the dropdown menu - the catalog may have to read new track files */
+    private void loadTrackBundles(final boolean selectNewestTrack) {
+        IoScheduler.getInstance().read(this, TASK_LOAD_TRACK_BUNDLES, createLoadTrackBundlesWork(new StorageHelper(mActivity.getApplicationContext())), new IoScheduler.Callback<List<TrackBundle>>() {
+            @Override
+            public void onResult(List<TrackBundle> trackBundles) {
+                if (trackBundles == null) {
+                    return;
+                }
+                mTrackBundlesLoaded = true;
+
+                // update dropdown menu (and load track in onItemSelected)
+                mDropdownAdapter.setTrackBundleList(trackBundles);
+                mDropdownAdapter.notifyDataSetChanged();
+                mDropdown.setAdapter(mDropdownAdapter);
+                if (selectNewestTrack && !trackBundles.isEmpty()) {
+                    mDropdown.setSelection(0, true);
+                }
+
+                // remove onboarding if necessary
+                switchOnboardingLayout();
+            }
+        });
+    }
+
+
+    /* Creates work that loads the list of tracks in the background - static, so it does not hold on to the fragment */
+    private static Callable<List<TrackBundle>> createLoadTrackBundlesWork(final StorageHelper storageHelper) {
+        return new Callable<List<TrackBundle>>() {
+            @Override
+            public List<TrackBundle> call() {
+                return storageHelper.getListOfTrackBundles();
+            }
+        };
+    }
+
+
+    /* Loads track from given file - or the most current track - replaces a load that is still running */
+    private void loadTrack(File trackFile) {
+        IoScheduler.getInstance().read(this, TASK_LOAD_TRACK, createLoadTrackWork(new StorageHelper(mActivity.getApplicationContext()), trackFile), new IoScheduler.Callback<Track>() {
+            @Override
+            public void onResult(Track track) {
+                mTrack = track;
+
+                // display track on map
+                displayTrack();
+
+                // load neighbours in dropdown - switching to them is instant then
+                if (mDropdownAdapter.getCount() > 0) {
+                    prewarmAdjacentTracks(mCurrentTrack);
+                }
+            }
+        });
+    }
+
+
+    /* Creates work that loads a track in the background - static, so it does not hold on to the fragment */
+    private static Callable<Track> createLoadTrackWork(final StorageHelper storageHelper, final File trackFile) {
+        return new Callable<Track>() {
+            @Override
+            public Track call() {
+                if (trackFile != null) {
+                    // get track from cache - or from storage
+                    LogHelper.v(LOG_TAG, "Loading track object in background: " + trackFile.toString());
+                    return TrackCache.getInstance().getTrack(storageHelper, trackFile);
+                } else {
+                    // load track object from most current file
+                    LogHelper.v(LOG_TAG, "No specific track specified. Loading most current one.");
+                    return storageHelper.loadTrack(FILE_MOST_CURRENT_TRACK);
+                }
+            }
+        };
+    }
+
+
+    /* Exports given track to GPX in the write lane - after pending saves - shows progress in WayPoints */
+    private void exportTrack(final Track track) {
+        final ExportHelper exportHelper = new ExportHelper(mActivity);
+        final ExportProgress exportProgress = new ExportProgress(R.string.dialog_export_progress_title, track.getSize());
+        mExportProgress = exportProgress;
+        IoScheduler.getInstance().write(this, TASK_EXPORT_TRACKS, createExportTrackWork(exportHelper, track, exportProgress), new IoScheduler.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean success) {
+                exportProgress.dismiss();
+                exportHelper.showExportResult(track, success != null && success);
+            }
+        });
+    }
+
+
+    /* Exports all stored tracks with given writer in the write lane - shows progress in tracks */
+    private void exportTracks(TrackWriter trackWriter, boolean zip) {
+        final ExportHelper exportHelper = new ExportHelper(mActivity);
+        StorageHelper storageHelper = new StorageHelper(mActivity.getApplicationContext());
+        final File[] trackFiles = storageHelper.getListOfTrackbookFiles();
+        final ExportProgress exportProgress = new ExportProgress(R.string.dialog_export_all_progress_title, trackFiles.length);
+        mExportProgress = exportProgress;
+        IoScheduler.getInstance().write(this, TASK_EXPORT_TRACKS, createExportTracksWork(exportHelper, storageHelper, trackFiles, trackWriter, zip, exportProgress), new IoScheduler.Callback<Integer>() {
+            @Override
+            public void onResult(Integer exportedTracks) {
+                exportProgress.dismiss();
+                exportHelper.showExportResult(exportedTracks != null ? exportedTracks : 0, trackFiles.length);
+            }
+        });
+    }
+
+
+    /* Creates work that exports a track to GPX - static, so it does not hold on to the fragment */
+    private static Callable<Boolean> createExportTrackWork(final ExportHelper exportHelper, final Track track, final ExportHelper.ExportProgressListener listener) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                LogHelper.v(LOG_TAG, "Exporting track object in background.");
+                return exportHelper.exportToGpx(track, listener);
+            }
+        };
+    }
+
+
+    /* Creates work that exports given track files - static, so it does not hold on to the fragment */
+    private static Callable<Integer> createExportTracksWork(final ExportHelper exportHelper, final StorageHelper storageHelper, final File[] trackFiles, final TrackWriter trackWriter, final boolean zip, final ExportHelper.ExportProgressListener listener) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                LogHelper.v(LOG_TAG, "Exporting all tracks in background.");
+                return exportHelper.exportTracks(storageHelper, trackFiles, trackWriter, zip, listener);
+            }
+        };
+    }
+
+
+    /* Loads the tracks next to given dropdown entry into the track cache */
+    private void prewarmAdjacentTracks(int item) {
+        File previousTrackFile = item > 0 ? mDropdownAdapter.getItem(item - 1).getTrackFile() : null;
+        File nextTrackFile = item + 1 < mDropdownAdapter.getCount() ? mDropdownAdapter.getItem(item + 1).getTrackFile() : null;
+        TrackCache.getInstance().prewarm(new StorageHelper(mActivity.getApplicationContext()), nextTrackFile, previousTrackFile);
+    }
+
+
     /* Displays map and statistics for track */
     private void displayTrack() {
         GeoPoint position;
@@ -332,18 +506,8 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
             Location lastLocation = mTrack.getWayPointLocation(mTrack.getSize() -1);
             position = new GeoPoint(lastLocation.getLatitude(), lastLocation.getLongitude());
 
-            String recordingStart = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault()).format(mTrack.getRecordingStart()) + " " +
-                    DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(mTrack.getRecordingStart());
-            String recordingStop = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault()).format(mTrack.getRecordingStop()) + " " +
-                    DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(mTrack.getRecordingStop());
-
             // populate views
-            mDistanceView.setText(mTrack.getTrackDistance());
-            mStepsView.setText(String.valueOf(Math.round(mTrack.getStepCount())));
-            mWaypointsView.setText(String.valueOf(mTrack.getWayPoints().size()));
-            mDurationView.setText(mTrack.getTrackDuration());
-            mRecordingStartView.setText(recordingStart);
-            mRecordingStopView.setText(recordingStop);
+            displayStatistics(mTrack.getTrackDistance(), mTrack.getStepCount(), mTrack.getSize(), mTrack.getTrackDuration(), mTrack.getRecordingStart(), mTrack.getRecordingStop());
 
             // draw track on map
             drawTrackOverlay(mTrack);
@@ -357,16 +521,40 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     }
 
 
+    /* Populates the views of the statistics sheet */
+    private void displayStatistics(String distance, float stepCount, int wayPointCount, String duration, Date recordingStartDate, Date recordingStopDate) {
+        String recordingStart = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault()).format(recordingStartDate) + " " +
+                DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(recordingStartDate);
+        String recordingStop = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault()).format(recordingStopDate) + " " +
+                DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(recordingStopDate);
+
+        // populate views
+        mDistanceView.setText(distance);
+        mStepsView.setText(String.valueOf(Math.round(stepCount)));
+        mWaypointsView.setText(String.valueOf(wayPointCount));
+        mDurationView.setText(duration);
+        mRecordingStartView.setText(recordingStart);
+        mRecordingStopView.setText(recordingStop);
+    }
+
+
     /* Draws track onto overlay */
     private void drawTrackOverlay(Track track) {
+        mMapView.getOverlays().remove(mTrackPathOverlay);
         mMapView.getOverlays().remove(mTrackOverlay);
+        mTrackPathOverlay = MapHelper.createTrackPathOverlay(mActivity, track, false);
         mTrackOverlay = MapHelper.createTrackOverlay(mActivity, track, false);
+        mMapView.getOverlays().add(mTrackPathOverlay);
         mMapView.getOverlays().add(mTrackOverlay);
     }
 
 
     /* show the onboarding layout, if no track has been recorded yet */
     private void switchOnboardingLayout() {
+        if (!mTrackBundlesLoaded) {
+            // wait for the list of tracks - see loadTrackBundles
+            return;
+        }
         if (mDropdownAdapter.isEmpty()){
             // show onboarding layout
             mMapView.setVisibility(View.GONE);
@@ -483,36 +671,98 @@ public class MainActivityTrackFragment extends Fragment implements AdapterView.O
     }
 
 
+    /* Creates OnLongClickListener for the export button - offers export of all tracks - needed in onCreateView */
+    private View.OnLongClickListener getExportAllButtonListener() {
+        return new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                // available formats - order matches R.array.dialog_export_all_formats
+                final TrackWriter[] trackWriters = {new GpxWriter(), new KmlWriter(), new GeoJsonWriter()};
+                final int[] selectedFormat = {0};
+
+                // show format dialog - positive button exports to files, neutral button to a zip archive
+                AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(mActivity);
+                dialogBuilder.setTitle(R.string.dialog_export_all_title);
+                dialogBuilder.setSingleChoiceItems(R.array.dialog_export_all_formats, selectedFormat[0], new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        selectedFormat[0] = which;
+                    }
+                });
+                DialogInterface.OnClickListener exportListener = new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (mExportProgress == null) {
+                            exportTracks(trackWriters[selectedFormat[0]], which == DialogInterface.BUTTON_NEUTRAL);
+                        }
+                    }
+                };
+                dialogBuilder.setPositiveButton(R.string.dialog_export_action_export, exportListener);
+                dialogBuilder.setNeutralButton(R.string.dialog_export_all_action_zip, exportListener);
+                dialogBuilder.setNegativeButton(R.string.dialog_default_action_cancel, null);
+                dialogBuilder.show();
+                return true;
+            }
+        };
+    }
+
+
     /**
-     * Inner class: Loads track from external storage using AsyncTask
+     * Inner class: Progress dialog of an export in the write lane - its cancel button and onDestroyView stop the export
      */
-    private class LoadTrackAsyncHelper extends AsyncTask<Integer, Void, Void> {
+    private class ExportProgress implements ExportHelper.ExportProgressListener {
+
+        private final ProgressDialog mProgressDialog;
+        private final Handler mHandler;
+        private volatile boolean mCancelled;
+
+        /* Constructor - shows progress dialog with given title and maximum */
+        ExportProgress(int title, int max) {
+            mHandler = new Handler();
+            mProgressDialog = new ProgressDialog(mActivity);
+            mProgressDialog.setTitle(title);
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setMax(max);
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.dialog_default_action_cancel), new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    LogHelper.v(LOG_TAG, "Export: User cancelled export.");
+                    cancel();
+                }
+            });
+            mProgressDialog.show();
+        }
 
         @Override
-        protected Void doInBackground(Integer... ints) {
-            LogHelper.v(LOG_TAG, "Loading track object in background.");
-
-            StorageHelper storageHelper = new StorageHelper(mActivity);
-            if (ints.length > 0) {
-                // get track file from dropdown adapter
-                int item = ints[0];
-                File trackFile = mDropdownAdapter.getItem(item).getTrackFile();
-                LogHelper.v(LOG_TAG, "Loading track number " + item);
-                mTrack = storageHelper.loadTrack(trackFile);
-            } else {
-                // load track object from most current file
-                LogHelper.v(LOG_TAG, "No specific track specified. Loading most current one.");
-                mTrack = storageHelper.loadTrack(FILE_MOST_CURRENT_TRACK);
-            }
-            return null;
+        public void onExportProgress(final int exported, int total) {
+            // called from the exporting thread - the dialog is updated on the main thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mProgressDialog.setProgress(exported);
+                }
+            });
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
+        public boolean isCancelled() {
+            return mCancelled;
+        }
 
-            // display track on map
-            displayTrack();
+        /* Stops the export - a running export stops at its next check, its result is not delivered */
+        void cancel() {
+            mCancelled = true;
+            IoScheduler.getInstance().cancel(MainActivityTrackFragment.this, TASK_EXPORT_TRACKS);
+            dismiss();
+        }
+
+        /* Dismisses the progress dialog - another export can be started then */
+        void dismiss() {
+            mProgressDialog.dismiss();
+            if (mExportProgress == this) {
+                mExportProgress = null;
+            }
         }
     }
     /**
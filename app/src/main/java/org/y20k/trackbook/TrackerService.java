@@ -17,10 +17,8 @@
 package org.y20k.trackbook;
 
 import android.app.Service;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.database.ContentObserver;
 import android.hardware.Sensor;
@@ -30,11 +28,12 @@ import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.AsyncTask;
+import android.os.Binder;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
@@ -42,13 +41,18 @@ import android.widget.Toast;
 
 import org.y20k.trackbook.core.Track;
 import org.y20k.trackbook.core.WayPoint;
+import org.y20k.trackbook.helpers.LocationFilter;
 import org.y20k.trackbook.helpers.LocationHelper;
+import org.y20k.trackbook.helpers.LocationScheduler;
 import org.y20k.trackbook.helpers.LogHelper;
 import org.y20k.trackbook.helpers.NotificationHelper;
 import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackJournal;
+import org.y20k.trackbook.helpers.TrackRecorder;
 import org.y20k.trackbook.helpers.TrackbookKeys;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
@@ -62,15 +66,20 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
 
     /* Main class variables */
     private Track mTrack;
+    private TrackRecorder mRecorder;
+    private LocationScheduler mScheduler;
+    private final IBinder mBinder = new LocalBinder();
+    // listeners may remove themselves from within a callback - copy on write keeps the running iteration intact
+    private final List<TrackListener> mTrackListeners = new CopyOnWriteArrayList<>();
+    private TrackJournal mJournal;
     private CountDownTimer mTimer;
     private LocationManager mLocationManager;
     private SensorManager mSensorManager;
     private float mStepCountOffset;
     private LocationListener mGPSListener = null;
     private LocationListener mNetworkListener = null;
+    private LocationListener mPassiveListener = null;
     private SettingsContentObserver mSettingsContentObserver;
-    private Location mCurrentBestLocation;
-    private BroadcastReceiver mTrackRequestReceiver;
     private boolean mTrackerServiceRunning;
     private boolean mLocationSystemSetting;
 
@@ -79,16 +88,6 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
     public void onCreate() {
         super.onCreate();
 
-        // receiver: listen track request issued by the main map - in onResume
-        mTrackRequestReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                sendTrackUpdate();
-            }
-        };
-        IntentFilter trackRequestReceiverIntentFilter = new IntentFilter(ACTION_TRACK_REQUEST);
-        LocalBroadcastManager.getInstance(this).registerReceiver(mTrackRequestReceiver, trackRequestReceiverIntentFilter);
-
         // acquire reference to Location Manager
         mLocationManager = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
 
@@ -148,7 +147,7 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
 
@@ -159,7 +158,12 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
         // remove receivers and listeners
         stopFindingLocation();
         mSensorManager.unregisterListener(this);
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mTrackRequestReceiver);
+
+        // write queued journal records and stop the journal thread - recording is recovered from the journal
+        if (mJournal != null) {
+            mJournal.release();
+            mJournal = null;
+        }
 
         // cancel notification
         stopForeground(true);
@@ -180,6 +184,44 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
 
         // set step count in track
         mTrack.setStepCount(stepCount);
+
+        // notify listeners
+        for (TrackListener listener : mTrackListeners) {
+            listener.onStepCountChanged(mTrack);
+        }
+    }
+
+
+    /* Getter for the track currently recorded - the track is updated in place and must not be modified by callers */
+    @Nullable
+    public Track getTrack() {
+        return mTrack;
+    }
+
+
+    /* Getter for current best location */
+    public Location getCurrentBestLocation() {
+        return mRecorder != null ? mRecorder.getCurrentBestLocation() : null;
+    }
+
+
+    /* Getter for state of recording */
+    public boolean isTracking() {
+        return mTrackerServiceRunning;
+    }
+
+
+    /* Registers a listener - callbacks are delivered on the main thread */
+    public void addTrackListener(TrackListener listener) {
+        if (!mTrackListeners.contains(listener)) {
+            mTrackListeners.add(listener);
+        }
+    }
+
+
+    /* Unregisters a listener */
+    public void removeTrackListener(TrackListener listener) {
+        mTrackListeners.remove(listener);
     }
 
 
@@ -193,32 +235,46 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
     private void startTracking(Intent intent) {
         LogHelper.v(LOG_TAG, "Service received command: START");
 
-        // create a new track
+        // create a new track - and the recorder deciding which location fixes become WayPoints (optionally smoothed)
         mTrack = new Track();
+        boolean filterLocations = PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getBoolean(PREFS_LOCATION_FILTER, false);
+        mRecorder = new TrackRecorder(mTrack, filterLocations ? new LocationFilter() : null);
+
+        // create the scheduler adapting location requests to movement
+        List locationProviders = mLocationManager.getAllProviders();
+        mScheduler = new LocationScheduler(mTrack, locationProviders.contains(LocationManager.GPS_PROVIDER), locationProviders.contains(LocationManager.NETWORK_PROVIDER));
+
+        // create a new journal - used to restore the track in case the activity has been killed
+        StorageHelper storageHelper = new StorageHelper(this);
+        mJournal = storageHelper.openJournal(mTrack.getRecordingStart());
 
         // get last location
+        Location lastLocation = null;
         if (intent.hasExtra(EXTRA_LAST_LOCATION)) {
-            mCurrentBestLocation = intent.getParcelableExtra(EXTRA_LAST_LOCATION);
+            lastLocation = intent.getParcelableExtra(EXTRA_LAST_LOCATION);
         }
         //  get last location - fallback
-        if (mCurrentBestLocation == null) {
-            mCurrentBestLocation = LocationHelper.determineLastKnownLocation(mLocationManager);
+        if (lastLocation == null) {
+            lastLocation = LocationHelper.determineLastKnownLocation(mLocationManager);
         }
 
         // add last location as WayPoint to track
-        addWayPointToTrack();
+        onWayPointAdded(mRecorder.start(lastLocation));
 
-        // set timer to retrieve new locations and to prevent endless tracking
+        // set timer to update duration and notification and to prevent endless tracking - WayPoints are added as fixes arrive
         mTimer = new CountDownTimer(EIGHT_HOURS_IN_MILLISECONDS, FIFTEEN_SECONDS_IN_MILLISECONDS) {
             @Override
             public void onTick(long millisUntilFinished) {
                 // update track duration
                 long duration = EIGHT_HOURS_IN_MILLISECONDS - millisUntilFinished;
                 mTrack.setDuration(duration);
-                // try to add WayPoint to Track
-                addWayPointToTrack();
+                mJournal.appendStatistics(duration, mTrack.getStepCount());
                 // update notification
                 NotificationHelper.update(mTrack, true);
+                // switch gps off during stopovers
+                if (mScheduler.onTimer(SystemClock.elapsedRealtimeNanos())) {
+                    updateLocationRequests();
+                }
             }
 
             @Override
@@ -260,12 +316,17 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
         // stop timer
         mTimer.cancel();
 
-        // broadcast an updated track
-        sendTrackUpdate();
+        // notify listeners
+        for (TrackListener listener : mTrackListeners) {
+            listener.onTrackingStopped(mTrack);
+        }
 
-        // save a temp file in case the activity has been killed
-        SaveTempTrackAsyncHelper saveTempTrackAsyncHelper = new SaveTempTrackAsyncHelper();
-        saveTempTrackAsyncHelper.execute();
+        // finish journal in case the activity has been killed
+        if (mJournal != null) {
+            mJournal.appendStatistics(mTrack.getDuration(), mTrack.getStepCount());
+            mJournal.close(mTrack.getRecordingStop());
+            mJournal = null;
+        }
 
         // change notification
         NotificationHelper.update(mTrack, false);
@@ -279,68 +340,44 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
     }
 
 
-    /* Adds a new WayPoint to current track */
-    private void addWayPointToTrack() {
-
-        // create new WayPoint
-        WayPoint newWayPoint = null;
-
-        // get number of previously tracked WayPoints
-        int trackSize = mTrack.getWayPoints().size();
-
-        if (trackSize == 0) {
-            // add first location to track
-            newWayPoint = mTrack.addWayPoint(mCurrentBestLocation);
-        } else {
-            // get last WayPoint and compare it to current location
-            Location lastWayPoint = mTrack.getWayPointLocation(trackSize - 1);
-
-            // default value for average speed
-            float averageSpeed = 0f;
-
-            // compute average speed if new location come from network provider
-            if (trackSize > 1 && mCurrentBestLocation.getProvider().equals(LocationManager.NETWORK_PROVIDER)) {
-                Location firstWayPoint = mTrack.getWayPointLocation(0);
-                float distance = firstWayPoint.distanceTo(lastWayPoint);
-                long timeDifference = lastWayPoint.getElapsedRealtimeNanos() - firstWayPoint.getElapsedRealtimeNanos();
-                averageSpeed = distance / ((float)timeDifference / ONE_NANOSECOND);
-            }
-
-            if (LocationHelper.isNewWayPoint(lastWayPoint, mCurrentBestLocation, averageSpeed)) {
-                // if new, add current best location to track
-                newWayPoint = mTrack.addWayPoint(mCurrentBestLocation);
-            }
-
-        }
-
-        // send local broadcast if new WayPoint added
+    /* Records a WayPoint accepted by the recorder - does nothing if the fix was not accepted */
+    private void onWayPointAdded(WayPoint newWayPoint) {
+        // append to journal and notify listeners if new WayPoint added
         if (newWayPoint != null) {
-            sendTrackUpdate();
+            mJournal.appendWayPoint(newWayPoint);
+            notifyWayPointAdded();
         }
-
     }
 
 
-    /* Broadcasts a track update */
-    private void sendTrackUpdate() {
-        if (mTrack != null) {
-            Intent i = new Intent();
-            i.setAction(ACTION_TRACK_UPDATED);
-            i.putExtra(EXTRA_TRACK, mTrack);
-            i.putExtra(EXTRA_LAST_LOCATION, mCurrentBestLocation);
-            LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(i);
+    /* Notifies listeners about the WayPoint just added - and about its predecessor, if that became a stopover */
+    private void notifyWayPointAdded() {
+        int trackSize = mTrack.getSize();
+        boolean stopOver = trackSize > 1 && mTrack.getIsStopOver(trackSize - 2);
+        for (TrackListener listener : mTrackListeners) {
+            if (stopOver) {
+                listener.onStopOver(mTrack, trackSize - 2);
+            }
+            listener.onWayPointAdded(mTrack, mRecorder.getCurrentBestLocation());
         }
     }
 
 
-    /* Creates a location listener */
-    private LocationListener createLocationListener() {
+    /* Creates a location listener - a passive one ignores providers the app requests itself */
+    private LocationListener createLocationListener(final boolean passive) {
         return new LocationListener() {
             public void onLocationChanged(Location location) {
-                // check if the new location is better
-                if (LocationHelper.isBetterLocation(location, mCurrentBestLocation)) {
-                    // save location
-                    mCurrentBestLocation = location;
+                // the passive provider also delivers fixes requested by the app itself - drop those duplicates
+                if (passive && mScheduler != null && mScheduler.isRequested(location.getProvider())) {
+                    return;
+                }
+                // adapt location requests to speed and accuracy - before the recorder, whose filter smoothes the fix in place
+                if (mScheduler != null && mScheduler.onLocationChanged(location)) {
+                    updateLocationRequests();
+                }
+                // evaluate every fix as it arrives - the recorder adds it to the track if it is better and far enough from the last WayPoint
+                if (mRecorder != null) {
+                    onWayPointAdded(mRecorder.onLocationChanged(location));
                 }
             }
 
@@ -359,38 +396,77 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
     }
 
 
-    /* Creates gps and network location listeners */
+    /* Creates gps, network and passive location listeners */
     private void startFindingLocation() {
 
         // register location listeners and request updates
         List locationProviders = mLocationManager.getAllProviders();
         if (locationProviders.contains(LocationManager.GPS_PROVIDER)) {
-            mGPSListener = createLocationListener();
+            mGPSListener = createLocationListener(false);
             mTrackerServiceRunning = true;
         }
         if (locationProviders.contains(LocationManager.NETWORK_PROVIDER)) {
-            mNetworkListener = createLocationListener();
+            mNetworkListener = createLocationListener(false);
             mTrackerServiceRunning = true;
         }
-        LocationHelper.registerLocationListeners(mLocationManager, mGPSListener, mNetworkListener);
+        if (locationProviders.contains(LocationManager.PASSIVE_PROVIDER)) {
+            mPassiveListener = createLocationListener(true);
+        }
+        updateLocationRequests();
     }
 
 
-    /* Removes gps and network location listeners */
+    /* Registers location listeners with the current requests of the scheduler */
+    private void updateLocationRequests() {
+        LocationHelper.registerLocationListeners(mLocationManager, mScheduler, mGPSListener, mNetworkListener, mPassiveListener);
+    }
+
+
+    /* Removes gps, network and passive location listeners */
     private void stopFindingLocation() {
         // remove listeners
         LocationHelper.removeLocationListeners(mLocationManager, mGPSListener, mNetworkListener);
+        if (mPassiveListener != null) {
+            mLocationManager.removeUpdates(mPassiveListener);
+        }
         mTrackerServiceRunning = false;
 
         // notify MainActivityMapFragment
         Intent i = new Intent();
         i.setAction(ACTION_TRACKING_STOPPED);
         i.putExtra(EXTRA_TRACK, mTrack);
-        i.putExtra(EXTRA_LAST_LOCATION, mCurrentBestLocation);
+        i.putExtra(EXTRA_LAST_LOCATION, getCurrentBestLocation());
         LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(i);
     }
 
 
+    /**
+     * Inner class: LocalBinder gives bound components in this process direct access to the service
+     */
+    public class LocalBinder extends Binder {
+        public TrackerService getService() {
+            return TrackerService.this;
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+
+    /**
+     * Inner interface: TrackListener is notified about changes of the track currently recorded
+     */
+    public interface TrackListener {
+        void onWayPointAdded(Track track, Location lastLocation);
+        void onStopOver(Track track, int index);
+        void onStepCountChanged(Track track);
+        void onTrackingStopped(Track track);
+    }
+    /**
+     * End of inner interface
+     */
+
+
     /**
      * Inner class: SettingsContentObserver is a custom ContentObserver for changes in Android Settings
      */
@@ -428,29 +504,4 @@ public class TrackerService extends Service implements TrackbookKeys, SensorEven
      */
 
 
-    /**
-     * Inner class: Saves track to external storage using AsyncTask
-     */
-    private class SaveTempTrackAsyncHelper extends AsyncTask<Void, Void, Void> {
-
-        @Override
-        protected Void doInBackground(Void... voids) {
-            LogHelper.v(LOG_TAG, "Saving temporary track object in background.");
-            // save track object
-            StorageHelper storageHelper = new StorageHelper(TrackerService.this);
-            storageHelper.saveTrack(mTrack, FILE_TEMP_TRACK);
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
-            LogHelper.v(LOG_TAG, "Saving finished.");
-        }
-    }
-    /**
-     * End of inner class
-     */
-
-
 }
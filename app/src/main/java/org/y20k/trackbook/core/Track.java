@@ -17,6 +17,7 @@
 package org.y20k.trackbook.core;
 
 import android.location.Location;
+import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -29,44 +30,75 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Locale;
 
 
 /**
  * Track class
+ * WayPoints are stored in parallel primitive columns - WayPoint and Location objects are only created on demand
  */
 public class Track implements TrackbookKeys, Parcelable {
 
     /* Define log tag */
     private static final String LOG_TAG = Track.class.getSimpleName();
 
+    /* Minimum number of WayPoints the columns grow by */
+    private static final int CHUNK_SIZE = 256;
+
 
     /* Main class variables */
-    private final int mTrackFormatVersion;
-    private final List<WayPoint> mWayPoints;
+    private int mTrackFormatVersion;
+    private int mSize;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private long[] mTimes;
+    private long[] mElapsedRealtimeNanos;
+    private float[] mAccuracies;
+    private float[] mAltitudes;
+    private float[] mDistances;
+    private byte[] mProviders;
+    private byte[] mFlags;
+    private byte[] mNumberSatellites;
     private float mTrackLength;
     private long mDuration;
     private float mStepCount;
-    private final Date mRecordingStart;
+    private Date mRecordingStart;
     private Date mRecordingStop;
+    private final float[] mDistanceResult = new float[1];
+    private TrackIndex mIndex;
 
 
     /* Constructor */
     public Track() {
-        mTrackFormatVersion = CURRENT_TRACK_FORMAT_VERSION;
-        mWayPoints = new ArrayList<WayPoint>();
-        mTrackLength = 0f;
-        mDuration = 0;
-        mStepCount = 0f;
-        mRecordingStart = GregorianCalendar.getInstance().getTime();
-        mRecordingStop = mRecordingStart;
+        this(CURRENT_TRACK_FORMAT_VERSION, 0f, 0, 0f, GregorianCalendar.getInstance().getTime(), null);
+    }
+
+
+    /* Constructor used when restoring a track from storage - WayPoints are added via restoreWayPoint */
+    public Track(int trackFormatVersion, float trackLength, long duration, float stepCount, Date recordingStart, Date recordingStop) {
+        mTrackFormatVersion = trackFormatVersion;
+        mTrackLength = trackLength;
+        mDuration = duration;
+        mStepCount = stepCount;
+        mRecordingStart = recordingStart;
+        mRecordingStop = recordingStop != null ? recordingStop : recordingStart;
+        allocateColumns(CHUNK_SIZE);
     }
 
 
     /* Constructor used by CREATOR */
     protected Track(Parcel in) {
         mTrackFormatVersion = in.readInt();
-        mWayPoints = in.createTypedArrayList(WayPoint.CREATOR);
+        mSize = in.readInt();
+        mLatitudes = in.createDoubleArray();
+        mLongitudes = in.createDoubleArray();
+        mTimes = in.createLongArray();
+        mElapsedRealtimeNanos = in.createLongArray();
+        mAccuracies = in.createFloatArray();
+        mAltitudes = in.createFloatArray();
+        mDistances = in.createFloatArray();
+        mProviders = in.createByteArray();
+        mFlags = in.createByteArray();
+        mNumberSatellites = in.createByteArray();
         mTrackLength = in.readFloat();
         mDuration = in.readLong();
         mStepCount = in.readFloat();
@@ -94,36 +126,97 @@ public class Track implements TrackbookKeys, Parcelable {
         // add up distance
         mTrackLength = addDistanceToTrack(location);
 
-        int wayPointCount = mWayPoints.size();
-
         // determine if last WayPoint was a stopover
-        boolean stopOver = false;
-        if (wayPointCount > 1) {
-            Location lastLocation = mWayPoints.get(wayPointCount - 1).getLocation();
-            stopOver = LocationHelper.isStopOver(lastLocation, location);
-        }
-        if (stopOver) {
-            // mark last WayPoint as stopover
+        if (markStopOver(location.getElapsedRealtimeNanos())) {
             LogHelper.v(LOG_TAG, "Last Location was a stop.");
-            mWayPoints.get(wayPointCount-1).setIsStopOver(true);
         }
 
         // create new WayPoint
         WayPoint wayPoint = new WayPoint(location, false, mTrackLength);
 
         // add new WayPoint to track
-        mWayPoints.add(wayPoint);
+        byte flags = 0;
+        if (location.hasAltitude()) {
+            flags |= WAYPOINT_FLAG_HAS_ALTITUDE;
+        }
+        if (location.hasAccuracy()) {
+            flags |= WAYPOINT_FLAG_HAS_ACCURACY;
+        }
+        restoreWayPoint(location.getLatitude(), location.getLongitude(), location.getTime(), location.getElapsedRealtimeNanos(), location.getAccuracy(),
+                (float) location.getAltitude(), mTrackLength, LocationHelper.getProviderId(location.getProvider()), flags, (byte) Math.min(wayPoint.getNumberSatellites(), Byte.MAX_VALUE));
 
         return wayPoint;
     }
 
 
+    /* Appends a stored WayPoint as it is - distance and stopover state are not recomputed */
+    public void restoreWayPoint(double latitude, double longitude, long time, long elapsedRealtimeNanos, float accuracy, float altitude,
+                                float distanceToStartingPoint, byte providerId, byte flags, byte numberSatellites) {
+        ensureCapacity(mSize + 1);
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mTimes[mSize] = time;
+        mElapsedRealtimeNanos[mSize] = elapsedRealtimeNanos;
+        mAccuracies[mSize] = accuracy;
+        mAltitudes[mSize] = altitude;
+        mDistances[mSize] = distanceToStartingPoint;
+        mProviders[mSize] = providerId;
+        mFlags[mSize] = flags;
+        mNumberSatellites[mSize] = numberSatellites;
+        mSize++;
+    }
+
+
+    /* Appends a stored WayPoint object as it is */
+    public void restoreWayPoint(WayPoint wayPoint) {
+        Location location = wayPoint.getLocation();
+        byte flags = 0;
+        if (wayPoint.getIsStopOver()) {
+            flags |= WAYPOINT_FLAG_STOP_OVER;
+        }
+        if (location.hasAltitude()) {
+            flags |= WAYPOINT_FLAG_HAS_ALTITUDE;
+        }
+        if (location.hasAccuracy()) {
+            flags |= WAYPOINT_FLAG_HAS_ACCURACY;
+        }
+        restoreWayPoint(location.getLatitude(), location.getLongitude(), location.getTime(), location.getElapsedRealtimeNanos(), location.getAccuracy(),
+                (float) location.getAltitude(), wayPoint.getDistanceToStartingPoint(), LocationHelper.getProviderId(location.getProvider()), flags,
+                (byte) Math.min(wayPoint.getNumberSatellites(), Byte.MAX_VALUE));
+    }
+
+
+    /* Makes room for given number of WayPoints */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mLatitudes.length) {
+            allocateColumns(Math.max(capacity, mLatitudes.length + Math.max(CHUNK_SIZE, mLatitudes.length / 2)));
+        }
+    }
+
+
+    /* Sets the values stored along with the WayPoints - for storage formats that store them after the WayPoints */
+    public void restoreHeader(int trackFormatVersion, float trackLength, long duration, float stepCount, Date recordingStart, Date recordingStop) {
+        mTrackFormatVersion = trackFormatVersion;
+        mTrackLength = trackLength;
+        mDuration = duration;
+        mStepCount = stepCount;
+        mRecordingStart = recordingStart;
+        mRecordingStop = recordingStop != null ? recordingStop : recordingStart;
+    }
+
+
     /* Sets end time and date of recording */
     public void setRecordingEnd () {
         mRecordingStop = GregorianCalendar.getInstance().getTime();
     }
 
 
+    /* Setter for end time and date of recording */
+    public void setRecordingStop(Date recordingStop) {
+        mRecordingStop = recordingStop;
+    }
+
+
     /* Setter for duration of track */
     public void setDuration(long duration) {
         mDuration = duration;
@@ -136,15 +229,52 @@ public class Track implements TrackbookKeys, Parcelable {
     }
 
 
-    /* Getter for mWayPoints */
+    /* Getter for WayPoints - creates a snapshot, changes to the returned WayPoints are not written back */
     public List<WayPoint> getWayPoints() {
-        return mWayPoints;
+        List<WayPoint> wayPoints = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            wayPoints.add(getWayPoint(i));
+        }
+        return wayPoints;
+    }
+
+
+    /* Getter for specific WayPoint - creates a new WayPoint object */
+    public WayPoint getWayPoint(int index) {
+        return new WayPoint(getWayPointLocation(index), getIsStopOver(index), mDistances[index], mNumberSatellites[index]);
+    }
+
+
+    /* Getter for spatial index - created on first use, WayPoints added later are indexed on the next query */
+    public TrackIndex getIndex() {
+        if (mIndex == null) {
+            mIndex = new TrackIndex(this);
+        }
+        return mIndex;
     }
 
 
     /* Getter size of Track / number of WayPoints */
     public int getSize() {
-        return mWayPoints.size();
+        return mSize;
+    }
+
+
+    /* Getter for format version of track */
+    public int getTrackFormatVersion() {
+        return mTrackFormatVersion;
+    }
+
+
+    /* Getter for length of track in meters */
+    public float getTrackLength() {
+        return mTrackLength;
+    }
+
+
+    /* Getter for duration of track in milliseconds */
+    public long getDuration() {
+        return mDuration;
     }
 
 
@@ -173,54 +303,139 @@ public class Track implements TrackbookKeys, Parcelable {
 
     /* Getter for distance of track */
     public String getTrackDistance() {
-        float trackDistance;
-        String unit;
+        return LocationHelper.convertToReadableDistance(mDistances[mSize-1]);
+    }
 
-        if (getUnitSystem(Locale.getDefault()) == IMPERIAL) {
-            // get track distance and convert to feet
-            trackDistance = mWayPoints.get(mWayPoints.size()-1).getDistanceToStartingPoint() * 3.28084f;
-            unit = "ft";
-        } else {
-            // get track distance
-            trackDistance = mWayPoints.get(mWayPoints.size()-1).getDistanceToStartingPoint();
-            unit = "m";
+
+    /* Getter for location of specific WayPoint - creates a new Location object */
+    public Location getWayPointLocation(int index) {
+        Location location = new Location(getProvider(index));
+        location.setLatitude(mLatitudes[index]);
+        location.setLongitude(mLongitudes[index]);
+        location.setTime(mTimes[index]);
+        location.setElapsedRealtimeNanos(mElapsedRealtimeNanos[index]);
+        if ((mFlags[index] & WAYPOINT_FLAG_HAS_ACCURACY) != 0) {
+            location.setAccuracy(mAccuracies[index]);
+        }
+        if ((mFlags[index] & WAYPOINT_FLAG_HAS_ALTITUDE) != 0) {
+            location.setAltitude(mAltitudes[index]);
         }
-        return String.format (Locale.ENGLISH, "%.0f", trackDistance) + unit;
+        if (mNumberSatellites[index] > 0) {
+            Bundle extras = new Bundle();
+            extras.putInt("satellites", mNumberSatellites[index]);
+            location.setExtras(extras);
+        }
+        return location;
     }
 
 
-    /* Getter for location of specific WayPoint */
-    public Location getWayPointLocation(int index) {
-        return mWayPoints.get(index).getLocation();
+    /* Getters for the columns of specific WayPoint */
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    public long getElapsedRealtimeNanos(int index) {
+        return mElapsedRealtimeNanos[index];
+    }
+
+    public float getAccuracy(int index) {
+        return mAccuracies[index];
+    }
+
+    public float getAltitude(int index) {
+        return mAltitudes[index];
+    }
+
+    public float getDistanceToStartingPoint(int index) {
+        return mDistances[index];
+    }
+
+    public String getProvider(int index) {
+        return LocationHelper.getProviderName(mProviders[index]);
+    }
+
+    public byte getProviderId(int index) {
+        return mProviders[index];
+    }
+
+    public byte getFlags(int index) {
+        return mFlags[index];
+    }
+
+    public boolean getIsStopOver(int index) {
+        return (mFlags[index] & WAYPOINT_FLAG_STOP_OVER) != 0;
+    }
+
+    public int getNumberSatellites(int index) {
+        return mNumberSatellites[index];
+    }
+
+
+    /* Calculates distance between the last WayPoint and given position - returns 0 if there is no WayPoint yet */
+    public float getDistanceToLastWayPoint(double latitude, double longitude) {
+        if (mSize == 0) {
+            return 0f;
+        }
+        Location.distanceBetween(mLatitudes[mSize - 1], mLongitudes[mSize - 1], latitude, longitude, mDistanceResult);
+        return mDistanceResult[0];
+    }
+
+
+    /* Marks the last WayPoint as stopover, if a WayPoint at given elapsed realtime follows too late - returns true if it was marked */
+    public boolean markStopOver(long elapsedRealtimeNanos) {
+        // the first WayPoint is never a stopover
+        if (mSize > 1 && LocationHelper.isStopOver(mElapsedRealtimeNanos[mSize - 1], elapsedRealtimeNanos)) {
+            mFlags[mSize - 1] |= WAYPOINT_FLAG_STOP_OVER;
+            return true;
+        }
+        return false;
     }
 
 
     /* Adds distance to given location to length of track */
     private float addDistanceToTrack(Location location) {
-        // get number of previously recorded WayPoints
-        int wayPointCount = mWayPoints.size();
-
         // at least two data points are needed
-        if (wayPointCount >= 1) {
+        if (mSize >= 1) {
             // add up distance
-            Location lastLocation = mWayPoints.get(wayPointCount - 1).getLocation();
-            return mTrackLength + lastLocation.distanceTo(location);
+            return mTrackLength + getDistanceToLastWayPoint(location.getLatitude(), location.getLongitude());
         }
 
         return 0f;
     }
 
 
-    /* Determines which unit system the device is using (metric or imperial) */
-    private int getUnitSystem(Locale locale) {
-        // America (US), Liberia (LR), Myanmar(MM) use the imperial system
-        List<String> imperialSystemCountries = Arrays.asList("US", "LR", "MM");
-        String countryCode = locale.getCountry();
-
-        if (imperialSystemCountries.contains(countryCode)){
-            return IMPERIAL;
+    /* Grows the columns to given capacity */
+    private void allocateColumns(int capacity) {
+        if (mLatitudes == null) {
+            mLatitudes = new double[capacity];
+            mLongitudes = new double[capacity];
+            mTimes = new long[capacity];
+            mElapsedRealtimeNanos = new long[capacity];
+            mAccuracies = new float[capacity];
+            mAltitudes = new float[capacity];
+            mDistances = new float[capacity];
+            mProviders = new byte[capacity];
+            mFlags = new byte[capacity];
+            mNumberSatellites = new byte[capacity];
         } else {
-            return METRIC;
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mElapsedRealtimeNanos = Arrays.copyOf(mElapsedRealtimeNanos, capacity);
+            mAccuracies = Arrays.copyOf(mAccuracies, capacity);
+            mAltitudes = Arrays.copyOf(mAltitudes, capacity);
+            mDistances = Arrays.copyOf(mDistances, capacity);
+            mProviders = Arrays.copyOf(mProviders, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mNumberSatellites = Arrays.copyOf(mNumberSatellites, capacity);
         }
     }
 
@@ -234,7 +449,17 @@ public class Track implements TrackbookKeys, Parcelable {
     @Override
     public void writeToParcel(Parcel parcel, int flags) {
         parcel.writeInt(mTrackFormatVersion);
-        parcel.writeTypedList(mWayPoints);
+        parcel.writeInt(mSize);
+        parcel.writeDoubleArray(Arrays.copyOf(mLatitudes, mSize));
+        parcel.writeDoubleArray(Arrays.copyOf(mLongitudes, mSize));
+        parcel.writeLongArray(Arrays.copyOf(mTimes, mSize));
+        parcel.writeLongArray(Arrays.copyOf(mElapsedRealtimeNanos, mSize));
+        parcel.writeFloatArray(Arrays.copyOf(mAccuracies, mSize));
+        parcel.writeFloatArray(Arrays.copyOf(mAltitudes, mSize));
+        parcel.writeFloatArray(Arrays.copyOf(mDistances, mSize));
+        parcel.writeByteArray(mProviders, 0, mSize);
+        parcel.writeByteArray(mFlags, 0, mSize);
+        parcel.writeByteArray(mNumberSatellites, 0, mSize);
         parcel.writeFloat(mTrackLength);
         parcel.writeLong(mDuration);
         parcel.writeFloat(mStepCount);
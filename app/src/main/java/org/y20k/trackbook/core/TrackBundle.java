@@ -1,7 +1,7 @@
 /**
  * TrackBundle.java
  * Implements a TrackBundle
- * TrackBundle is a container for file and corresponding name of a track
+ * TrackBundle is a container for file, name and summary of a track - as stored in the track catalog
  *
  * This file is part of
  * TRACKBOOK - Movement Recorder for Android
@@ -17,18 +17,17 @@
 
 package org.y20k.trackbook.core;
 
-import org.y20k.trackbook.helpers.LogHelper;
+import org.y20k.trackbook.helpers.LocationHelper;
 
 import java.io.File;
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
 
 /**
  * TrackBundle class
+ * Holds everything the track list needs - loading the track itself is only necessary to display it
  */
 public class TrackBundle {
 
@@ -36,14 +35,70 @@ public class TrackBundle {
     private static final String LOG_TAG = TrackBundle.class.getSimpleName();
 
     /* Main class variables */
-    private File mTrackFile;
+    private final File mTrackFile;
+    private final long mFileSize;
+    private final Date mRecordingStart;
+    private final Date mRecordingStop;
+    private final long mDuration;
+    private final float mTrackLength;
+    private final float mStepCount;
+    private final int mSize;
+    private final double mNorth;
+    private final double mEast;
+    private final double mSouth;
+    private final double mWest;
     private String mTrackName;
 
 
-    /* Constructor */
-    public TrackBundle(File file) {
+    /* Constructor used when reading the track catalog */
+    public TrackBundle(File file, long fileSize, Date recordingStart, Date recordingStop, long duration, float trackLength, float stepCount, int size,
+                       double north, double east, double south, double west) {
         mTrackFile = file;
-        mTrackName = buildTrackName(file);
+        mFileSize = fileSize;
+        mRecordingStart = recordingStart;
+        mRecordingStop = recordingStop;
+        mDuration = duration;
+        mTrackLength = trackLength;
+        mStepCount = stepCount;
+        mSize = size;
+        mNorth = north;
+        mEast = east;
+        mSouth = south;
+        mWest = west;
+    }
+
+
+    /* Constructor used for a track file that cannot be read - kept in the catalog, so the file is read again only if it changes */
+    public TrackBundle(File file, long fileSize) {
+        this(file, fileSize, new Date(0), new Date(0), 0, 0f, 0f, -1, 0, 0, 0, 0);
+    }
+
+
+    /* Constructor used when a track is stored - computes bounding box */
+    public TrackBundle(File file, Track track) {
+        mTrackFile = file;
+        mFileSize = file.length();
+        mRecordingStart = track.getRecordingStart();
+        mRecordingStop = track.getRecordingStop();
+        mDuration = track.getDuration();
+        mTrackLength = track.getTrackLength();
+        mStepCount = track.getStepCount();
+        mSize = track.getSize();
+
+        double north = -90;
+        double east = -180;
+        double south = 90;
+        double west = 180;
+        for (int i = 0; i < mSize; i++) {
+            north = Math.max(north, track.getLatitude(i));
+            south = Math.min(south, track.getLatitude(i));
+            east = Math.max(east, track.getLongitude(i));
+            west = Math.min(west, track.getLongitude(i));
+        }
+        mNorth = north;
+        mEast = east;
+        mSouth = south;
+        mWest = west;
     }
 
 
@@ -53,33 +108,104 @@ public class TrackBundle {
     }
 
 
-    /* Getter for track name */
+    /* Getter for size of track file - used to detect changed files */
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+
+    /* Getter for track name - built on first use */
     public String getTrackName() {
+        if (mTrackName == null) {
+            mTrackName = buildTrackName(mRecordingStart);
+        }
         return mTrackName;
     }
 
 
-    /* Builds a readable track name from the track's file name */
-    private String buildTrackName(File file) {
+    /* Getter for start date of recording */
+    public Date getRecordingStart() {
+        return mRecordingStart;
+    }
 
-        // get file name without extension
-        String readableTrackName = file.getName();
-        readableTrackName = readableTrackName.substring(0, readableTrackName.indexOf(".trackbook"));
 
-        try {
-            // convert file name to date
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
-            Date trackDate = dateFormat.parse(readableTrackName);
+    /* Getter for stop date of recording */
+    public Date getRecordingStop() {
+        return mRecordingStop;
+    }
 
-            // convert date to track name string according to current locale
-            readableTrackName = DateFormat.getDateInstance(DateFormat.LONG, Locale.getDefault()).format(trackDate) + " - " +
-                    DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(trackDate);
 
-        } catch (ParseException e) {
-            LogHelper.w(LOG_TAG, "Unable to parse file name into date object (yyyy-MM-dd-HH-mm-ss): " + e);
-        }
+    /* Getter for duration of track in milliseconds */
+    public long getDuration() {
+        return mDuration;
+    }
+
+
+    /* Getter for duration of track as readable string */
+    public String getTrackDuration() {
+        return LocationHelper.convertToReadableTime(mDuration, true);
+    }
+
+
+    /* Getter for length of track in meters */
+    public float getTrackLength() {
+        return mTrackLength;
+    }
+
+
+    /* Getter for length of track as readable string */
+    public String getTrackDistance() {
+        return LocationHelper.convertToReadableDistance(mTrackLength);
+    }
+
+
+    /* Getter for step count of recording */
+    public float getStepCount() {
+        return mStepCount;
+    }
+
+
+    /* Getter for number of WayPoints */
+    public int getSize() {
+        return mSize;
+    }
+
+
+    /* Checks if track file could be read - unreadable files have no WayPoint count */
+    public boolean isReadable() {
+        return mSize >= 0;
+    }
+
+
+    /* Getters for bounding box of track */
+    public double getNorth() {
+        return mNorth;
+    }
+
+    public double getEast() {
+        return mEast;
+    }
+
+    public double getSouth() {
+        return mSouth;
+    }
+
+    public double getWest() {
+        return mWest;
+    }
+
+
+    /* Checks if track crosses given bounding box */
+    public boolean intersects(double north, double east, double south, double west) {
+        return mSize > 0 && mSouth <= north && mNorth >= south && mWest <= east && mEast >= west;
+    }
+
 
-        return readableTrackName;
+    /* Builds a readable track name from the start of the recording */
+    private String buildTrackName(Date recordingStart) {
+        // convert date to track name string according to current locale
+        return DateFormat.getDateInstance(DateFormat.LONG, Locale.getDefault()).format(recordingStart) + " - " +
+                DateFormat.getTimeInstance(DateFormat.SHORT, Locale.getDefault()).format(recordingStart);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,263 @@
+/**
+ * TrackIndex.java
+ * Implements the TrackIndex class
+ * A TrackIndex is a grid based spatial index over the WayPoints of a Track
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.core;
+
+import org.y20k.trackbook.helpers.LogHelper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+
+/**
+ * TrackIndex class
+ * The world is divided into cells of CELL_SIZE degrees. A cell lists every WayPoint located in it and
+ * every WayPoint whose segment from its predecessor passes the cell's bounding box. The index catches
+ * up with WayPoints appended to the track on every query, so each WayPoint is indexed only once.
+ */
+public class TrackIndex {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackIndex.class.getSimpleName();
+
+
+    /* Edge length of grid cells in degrees - about 100 meters latitude */
+    private static final double CELL_SIZE = 0.001;
+
+    /* Segments covering more cells are kept in a separate list, which is part of every result */
+    private static final int MAX_CELLS_PER_SEGMENT = 16;
+
+    /* Bounding boxes covering more cells are not looked up */
+    private static final int MAX_QUERY_CELLS = 4096;
+
+    /* Limit for search radius in cells */
+    private static final int MAX_SEARCH_RINGS = 256;
+
+
+    /* Main class variables */
+    private final Track mTrack;
+    private final HashMap<Long, Cell> mCells;
+    private int[] mLongSegments;
+    private int mLongSegmentCount;
+    private int mIndexedSize;
+
+
+    /* Constructor - use Track.getIndex() */
+    TrackIndex(Track track) {
+        mTrack = track;
+        mCells = new HashMap<>();
+        mLongSegments = new int[16];
+    }
+
+
+    /* Marks WayPoints located in given bounding box - or connected to their predecessor by a segment that may cross it */
+    public boolean findWayPoints(double north, double east, double south, double west, BitSet result) {
+        update();
+        result.clear();
+
+        // bounding boxes crossing the date line or covering too many cells are not supported
+        if (west > east || north < south) {
+            return false;
+        }
+        int minLatitude = toCell(south, 90);
+        int maxLatitude = toCell(north, 90);
+        int minLongitude = toCell(west, 180);
+        int maxLongitude = toCell(east, 180);
+        long cellCount = (long) (maxLatitude - minLatitude + 1) * (maxLongitude - minLongitude + 1);
+        if (cellCount > MAX_QUERY_CELLS) {
+            return false;
+        }
+
+        if (cellCount <= mCells.size()) {
+            // look up every cell of bounding box
+            for (int latitude = minLatitude; latitude <= maxLatitude; latitude++) {
+                for (int longitude = minLongitude; longitude <= maxLongitude; longitude++) {
+                    Cell cell = mCells.get(toKey(latitude, longitude));
+                    if (cell != null) {
+                        cell.addTo(result);
+                    }
+                }
+            }
+        } else {
+            // fewer occupied cells than cells in bounding box - check occupied cells
+            for (Cell cell : mCells.values()) {
+                if (cell.mLatitude >= minLatitude && cell.mLatitude <= maxLatitude && cell.mLongitude >= minLongitude && cell.mLongitude <= maxLongitude) {
+                    cell.addTo(result);
+                }
+            }
+        }
+
+        for (int i = 0; i < mLongSegmentCount; i++) {
+            result.set(mLongSegments[i]);
+        }
+        return true;
+    }
+
+
+    /* Finds WayPoint closest to given position - returns -1 if there is none within maxDistance degrees */
+    public int findNearestWayPoint(double latitude, double longitude, double maxDistance) {
+        update();
+
+        // longitude degrees get shorter towards the poles
+        double longitudeScale = Math.max(Math.cos(Math.toRadians(latitude)), 0.01);
+        int centerLatitude = toCell(latitude, 90);
+        int centerLongitude = toCell(longitude, 180);
+        int maxRing = (int) Math.min(Math.ceil(maxDistance / (CELL_SIZE * longitudeScale)) + 1, MAX_SEARCH_RINGS);
+
+        int nearestIndex = -1;
+        double nearestDistance = maxDistance;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // cells of this ring are at least ring - 1 cells away
+            if (nearestIndex != -1 && (ring - 1) * CELL_SIZE * longitudeScale > nearestDistance) {
+                break;
+            }
+            for (int cellLatitude = centerLatitude - ring; cellLatitude <= centerLatitude + ring; cellLatitude++) {
+                boolean border = cellLatitude == centerLatitude - ring || cellLatitude == centerLatitude + ring;
+                int step = border ? 1 : Math.max(2 * ring, 1);
+                for (int cellLongitude = centerLongitude - ring; cellLongitude <= centerLongitude + ring; cellLongitude += step) {
+                    Cell cell = mCells.get(toKey(cellLatitude, cellLongitude));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.mSize; i++) {
+                        int index = cell.mIndices[i];
+                        double deltaLatitude = mTrack.getLatitude(index) - latitude;
+                        double deltaLongitude = (mTrack.getLongitude(index) - longitude) * longitudeScale;
+                        double distance = Math.sqrt(deltaLatitude * deltaLatitude + deltaLongitude * deltaLongitude);
+                        if (distance <= nearestDistance) {
+                            nearestDistance = distance;
+                            nearestIndex = index;
+                        }
+                    }
+                }
+            }
+        }
+        return nearestIndex;
+    }
+
+
+    /* Adds WayPoints appended to the track since the last call */
+    void update() {
+        int trackSize = mTrack.getSize();
+        if (trackSize < mIndexedSize) {
+            // track has been shortened - start over
+            LogHelper.v(LOG_TAG, "Track has been shortened from " + mIndexedSize + " to " + trackSize + " WayPoints. Rebuilding index.");
+            mCells.clear();
+            mLongSegmentCount = 0;
+            mIndexedSize = 0;
+        }
+        boolean build = mIndexedSize == 0 && trackSize > 0;
+        for (int i = mIndexedSize; i < trackSize; i++) {
+            add(i);
+        }
+        mIndexedSize = trackSize;
+        if (build) {
+            LogHelper.v(LOG_TAG, "Indexed " + trackSize + " WayPoints in " + mCells.size() + " cells and " + mLongSegmentCount + " long segments.");
+        }
+    }
+
+
+    /* Adds WayPoint and its segment from the predecessor to the grid */
+    private void add(int index) {
+        int latitude = toCell(mTrack.getLatitude(index), 90);
+        int longitude = toCell(mTrack.getLongitude(index), 180);
+        if (index == 0) {
+            insert(latitude, longitude, index);
+            return;
+        }
+
+        // bounding box of segment
+        int previousLatitude = toCell(mTrack.getLatitude(index - 1), 90);
+        int previousLongitude = toCell(mTrack.getLongitude(index - 1), 180);
+        int minLatitude = Math.min(latitude, previousLatitude);
+        int maxLatitude = Math.max(latitude, previousLatitude);
+        int minLongitude = Math.min(longitude, previousLongitude);
+        int maxLongitude = Math.max(longitude, previousLongitude);
+
+        if ((long) (maxLatitude - minLatitude + 1) * (maxLongitude - minLongitude + 1) > MAX_CELLS_PER_SEGMENT) {
+            insert(latitude, longitude, index);
+            if (mLongSegmentCount == mLongSegments.length) {
+                mLongSegments = Arrays.copyOf(mLongSegments, mLongSegmentCount * 2);
+            }
+            mLongSegments[mLongSegmentCount++] = index;
+        } else {
+            for (int cellLatitude = minLatitude; cellLatitude <= maxLatitude; cellLatitude++) {
+                for (int cellLongitude = minLongitude; cellLongitude <= maxLongitude; cellLongitude++) {
+                    insert(cellLatitude, cellLongitude, index);
+                }
+            }
+        }
+    }
+
+
+    /* Adds WayPoint index to cell */
+    private void insert(int latitude, int longitude, int index) {
+        Long key = toKey(latitude, longitude);
+        Cell cell = mCells.get(key);
+        if (cell == null) {
+            cell = new Cell(latitude, longitude);
+            mCells.put(key, cell);
+        }
+        cell.add(index);
+    }
+
+
+    /* Converts degrees into cell number - offset keeps cell numbers positive */
+    private static int toCell(double degrees, int offset) {
+        return (int) Math.floor((degrees + offset) / CELL_SIZE);
+    }
+
+
+    /* Combines latitude and longitude cell numbers into a key */
+    private static long toKey(int latitude, int longitude) {
+        return ((long) latitude << 32) | (longitude & 0xffffffffL);
+    }
+
+
+    /**
+     * Inner class: Cell holds the WayPoint indices of one grid cell in ascending order
+     */
+    private static class Cell {
+
+        private final int mLatitude;
+        private final int mLongitude;
+        private int[] mIndices = new int[4];
+        private int mSize;
+
+        Cell(int latitude, int longitude) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        void add(int index) {
+            if (mSize == mIndices.length) {
+                mIndices = Arrays.copyOf(mIndices, mSize * 2);
+            }
+            mIndices[mSize++] = index;
+        }
+
+        void addTo(BitSet result) {
+            for (int i = 0; i < mSize; i++) {
+                result.set(mIndices[i]);
+            }
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
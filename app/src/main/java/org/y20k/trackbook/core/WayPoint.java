@@ -49,6 +49,15 @@ public class WayPoint implements Parcelable {
 
     }
 
+    /* Constructor used when restoring a WayPoint from storage */
+    public WayPoint(Location location, boolean isStopOver, float distanceToStartingPoint, int numberSatellites) {
+        mLocation = location;
+        mIsStopOver = isStopOver;
+        mDistanceToStartingPoint = distanceToStartingPoint;
+        mNumberSatellites = numberSatellites;
+    }
+
+
     /* Constructor used by CREATOR */
     protected WayPoint(Parcel in) {
         mLocation = Location.CREATOR.createFromParcel(in);
@@ -90,6 +99,12 @@ public class WayPoint implements Parcelable {
     }
 
 
+    /* Getter for mNumberSatellites */
+    public int getNumberSatellites() {
+        return mNumberSatellites;
+    }
+
+
     /* Setter for mLocation */
     public void setLocation(Location location) {
         mLocation = location;
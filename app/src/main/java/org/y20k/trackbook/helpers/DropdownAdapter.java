@@ -31,7 +31,6 @@ import android.widget.TextView;
 import org.y20k.trackbook.R;
 import org.y20k.trackbook.core.TrackBundle;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,8 +55,8 @@ public class DropdownAdapter extends BaseAdapter implements ThemedSpinnerAdapter
         // store activity
         mActivity = activity;
 
-        // fill list with track bundles
-        initializeTrackBundleList();
+        // list stays empty until the track bundles have been loaded from the catalog (see setTrackBundleList)
+        mTrackBundleList = new ArrayList<>();
 
         // create an adapter helper
         mDropdownAdapterHelper = new ThemedSpinnerAdapter.Helper(activity);
@@ -158,26 +157,9 @@ public class DropdownAdapter extends BaseAdapter implements ThemedSpinnerAdapter
     }
 
 
-    /* Refreshes the adapter data */
-    public void refresh() {
-        // re-initialize the adapter's array list
-        initializeTrackBundleList();
-    }
-
-
-    /* Initializes list of track bundles */
-    private void initializeTrackBundleList() {
-
-        // get list of files from storage
-        StorageHelper storageHelper = new StorageHelper(mActivity);
-        File files[] = storageHelper.getListOfTrackbookFiles();
-
-        // fill list with track bundles
-        mTrackBundleList = new ArrayList<>();
-        for (File file : files) {
-            mTrackBundleList.add(new TrackBundle(file));
-        }
-
+    /* Replaces the adapter data - with track bundles loaded in the background (see StorageHelper.getListOfTrackBundles) */
+    public void setTrackBundleList(List<TrackBundle> trackBundleList) {
+        mTrackBundleList = trackBundleList;
     }
 
 }
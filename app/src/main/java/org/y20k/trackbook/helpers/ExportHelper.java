@@ -1,7 +1,7 @@
 /**
  * ExportHelper.java
  * Implements the ExportHelper class
- * A ExportHelper can convert Track object into a GPX string
+ * A ExportHelper can write Track objects to GPX, KML or GeoJSON files - via temp file, with progress and cancellation
  *
  * This file is part of
  * TRACKBOOK - Movement Recorder for Android
@@ -17,22 +17,36 @@
 package org.y20k.trackbook.helpers;
 
 import android.content.Context;
-import android.location.Location;
 import android.os.Environment;
 import android.widget.Toast;
 
 import org.y20k.trackbook.R;
 import org.y20k.trackbook.core.Track;
-import org.y20k.trackbook.core.WayPoint;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * ExportHelper class
@@ -43,6 +57,10 @@ public class ExportHelper implements TrackbookKeys {
     private static final String LOG_TAG = ExportHelper.class.getSimpleName();
 
 
+    /* Upper limit for parallel export workers */
+    private static final int MAX_EXPORT_WORKERS = 4;
+
+
     /* Main class variables */
 //    private final Track mTrack;
     private final Context mContext;
@@ -58,129 +76,237 @@ public class ExportHelper implements TrackbookKeys {
 
     /* Checks if a GPX file for given track is already present */
     public boolean gpxFileExists(Track track) {
-        return createFile(track).exists();
+        return createFile(mFolder, track, FILE_TYPE_GPX_EXTENSION).exists();
     }
 
 
-    /* Exports given track to GPX */
-    public boolean exportToGpx(Track track) {
+    /* Exports given track to GPX - may run on a background thread, reports progress to listener */
+    public boolean exportToGpx(Track track, ExportProgressListener listener) {
+        createFolder();
+        return exportTrack(track, createFile(mFolder, track, FILE_TYPE_GPX_EXTENSION), new GpxWriter(), listener);
+    }
 
-        // create "Download" folder if necessary
-        if (mFolder != null && !mFolder.exists()) {
-            LogHelper.v(LOG_TAG, "Creating new folder: " + mFolder.toString());
-            mFolder.mkdirs();
+
+    /* Exports given track files in parallel - has to run on a background thread, reports progress in tracks, returns number of exported tracks */
+    public int exportTracks(final StorageHelper storageHelper, File[] trackFiles, final TrackWriter trackWriter, boolean zip, final ExportProgressListener listener) {
+        createFolder();
+
+        // workers only check for cancellation - progress is reported per track
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        final ExportProgressListener workerListener = new ExportProgressListener() {
+            @Override
+            public void onExportProgress(int exportedWayPoints, int totalWayPoints) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return aborted.get() || listener.isCancelled();
+            }
+        };
+
+        // workers write directly to the Download folder - or to the cache folder, if files go into a zip archive
+        final File workerFolder = zip ? mContext.getCacheDir() : mFolder;
+        int workerCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_EXPORT_WORKERS));
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        CompletionService<File> completionService = new ExecutorCompletionService<>(executor);
+        for (final File trackFile : trackFiles) {
+            completionService.submit(new Callable<File>() {
+                @Override
+                public File call() {
+                    // load and convert track - only one track per worker is held in memory
+                    Track track = workerListener.isCancelled() ? null : storageHelper.loadTrack(trackFile);
+                    if (track == null || track.getSize() == 0) {
+                        return null;
+                    }
+                    File file = createFile(workerFolder, track, trackWriter.getFileExtension());
+                    return exportTrack(track, file, trackWriter, workerListener) ? file : null;
+                }
+            });
+        }
+        executor.shutdown();
+        LogHelper.v(LOG_TAG, "Exporting " + trackFiles.length + " tracks with " + workerCount + " workers.");
+
+        // collect finished tracks in order of completion
+        File zipFile = createZipFile();
+        File tempZipFile = new File(zipFile.getPath() + FILE_TYPE_TEMP_EXTENSION);
+        int exportedTracks = 0;
+        int finishedTracks = 0;
+        // counts futures taken from the completion service - a failed track is taken, but never finished
+        int takenTracks = 0;
+        boolean complete;
+        try (ZipOutputStream zipOutputStream = zip ? new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempZipFile))) : null) {
+            for (; finishedTracks < trackFiles.length && !listener.isCancelled(); finishedTracks++) {
+                Future<File> future = completionService.take();
+                takenTracks++;
+                File file = future.get();
+                if (file != null) {
+                    if (zipOutputStream != null) {
+                        addToZip(zipOutputStream, file);
+                        file.delete();
+                    }
+                    exportedTracks++;
+                }
+                listener.onExportProgress(finishedTracks + 1, trackFiles.length);
+            }
+            complete = finishedTracks == trackFiles.length;
+            if (zipOutputStream != null && complete) {
+                zipOutputStream.finish();
+            }
+        } catch (IOException | ExecutionException e) {
+            LogHelper.e(LOG_TAG, "Unable to export tracks: " + e);
+            complete = false;
+        } catch (InterruptedException e) {
+            LogHelper.e(LOG_TAG, "Export of tracks interrupted: " + e);
+            Thread.currentThread().interrupt();
+            complete = false;
+        } finally {
+            if (takenTracks < trackFiles.length) {
+                // stop workers - queued ones return right away - and remove their leftovers
+                aborted.set(true);
+                discardExportedFiles(completionService, trackFiles.length - takenTracks, zip);
+            }
         }
 
-        // get file for given track
-        File gpxFile = createFile(track);
+        // move zip archive into place
+        if (zip) {
+            if (complete && exportedTracks > 0 && tempZipFile.renameTo(zipFile)) {
+                LogHelper.v(LOG_TAG, "Exported tracks to zip archive: " + zipFile.toString());
+            } else {
+                tempZipFile.delete();
+                exportedTracks = 0;
+            }
+        }
+        return exportedTracks;
+    }
 
-        // get GPX string representation for given track
-        String gpxString = createGpxString(track);
 
-        // write GPX file
-        if (writeGpxToFile(gpxString, gpxFile)) {
-            String toastMessage = mContext.getResources().getString(R.string.toast_message_export_success) + " " + gpxFile.toString();
-            Toast.makeText(mContext, toastMessage, Toast.LENGTH_LONG).show();
-            return true;
+    /* Notifies user about result of export */
+    public void showExportResult(Track track, boolean success) {
+        String toastMessage;
+        if (success) {
+            toastMessage = mContext.getResources().getString(R.string.toast_message_export_success) + " " + createFile(mFolder, track, FILE_TYPE_GPX_EXTENSION).toString();
         } else {
-            String toastMessage = mContext.getResources().getString(R.string.toast_message_export_fail) + " " + gpxFile.toString();
-            Toast.makeText(mContext, toastMessage, Toast.LENGTH_LONG).show();
-            return false;
+            toastMessage = mContext.getResources().getString(R.string.toast_message_export_fail) + " " + createFile(mFolder, track, FILE_TYPE_GPX_EXTENSION).toString();
         }
+        Toast.makeText(mContext, toastMessage, Toast.LENGTH_LONG).show();
     }
 
 
-    /* Return a GPX filepath for a given track */
-    private File createFile(Track track) {
-        Date recordingStart = track.getRecordingStart();
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
-        return new File(mFolder, dateFormat.format(recordingStart) + FILE_TYPE_GPX_EXTENSION);
+    /* Notifies user about result of a bulk export */
+    public void showExportResult(int exportedTracks, int totalTracks) {
+        String toastMessage = mContext.getResources().getString(R.string.toast_message_export_all, exportedTracks, totalTracks) + " " + mFolder.toString();
+        Toast.makeText(mContext, toastMessage, Toast.LENGTH_LONG).show();
     }
 
 
-    /* Writes given GPX string to Download folder */
-    private boolean writeGpxToFile (String gpxString, File gpxFile) {
-        // write track
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(gpxFile))) {
-            LogHelper.v(LOG_TAG, "Saving track to external storage: " + gpxFile.toString());
-            bw.write(gpxString);
-            return true;
-        } catch (IOException e) {
-            LogHelper.e(LOG_TAG, "Unable to saving track to external storage (IOException): " + gpxFile.toString());
-            return false;
+    /* Creates "Download" folder if necessary */
+    private void createFolder() {
+        if (mFolder != null && !mFolder.exists()) {
+            LogHelper.v(LOG_TAG, "Creating new folder: " + mFolder.toString());
+            mFolder.mkdirs();
         }
     }
 
 
-    /* Creates GPX formatted string */
-    private String createGpxString(Track track) {
-        String gpxString;
-
-        // add header
-        gpxString = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\n" +
-                    "<gpx version=\"1.1\" creator=\"Transistor App (Android)\"\n" +
-                    "     xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
-                    "     xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n";
-
-        // add track
-        gpxString = gpxString + addTrack(track);
-
-        // add closing tag
-        gpxString = gpxString + "</gpx>\n";
-
-        return gpxString;
+    /* Return an export filepath for a given track */
+    private File createFile(File folder, Track track, String fileExtension) {
+        Date recordingStart = track.getRecordingStart();
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+        return new File(folder, dateFormat.format(recordingStart) + fileExtension);
     }
 
 
-    /* Creates Track */
-    private String addTrack(Track track) {
-        StringBuilder gpxTrack = new StringBuilder("");
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    /* Return a filepath for a zip archive of exported tracks */
+    private File createZipFile() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+        return new File(mFolder, "trackbook-" + dateFormat.format(new Date()) + FILE_TYPE_ZIP_EXTENSION);
+    }
 
-        // add opening track tag
-        gpxTrack.append("\t<trk>\n");
 
-        // add name to track
-        gpxTrack.append("\t\t<name>");
-        gpxTrack.append("test");
-        gpxTrack.append("</name>\n");
+    /* Writes given track to a temp file and replaces the export file in one step */
+    private boolean exportTrack(Track track, File file, TrackWriter trackWriter, ExportProgressListener listener) {
+        File tempFile = new File(file.getPath() + FILE_TYPE_TEMP_EXTENSION);
+        if (writeTrackToFile(track, tempFile, trackWriter, listener) && tempFile.renameTo(file)) {
+            LogHelper.v(LOG_TAG, "Exported track to external storage: " + file.toString());
+            return true;
+        } else {
+            tempFile.delete();
+            return false;
+        }
+    }
 
-        // add opening track segment tag
-        gpxTrack.append("\t\t<trkseg>\n");
 
-        // add route point
-        for (WayPoint wayPoint:track.getWayPoints()) {
-            // get location from waypoint
-            Location location = wayPoint.getLocation();
+    /* Writes given track to file - returns false if writing failed or was cancelled */
+    private boolean writeTrackToFile(Track track, File file, TrackWriter trackWriter, ExportProgressListener listener) {
+        // write track
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            LogHelper.v(LOG_TAG, "Saving track to external storage: " + file.toString());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            if (!trackWriter.writeTrack(track, writer, listener)) {
+                LogHelper.v(LOG_TAG, "Export cancelled: " + file.toString());
+                return false;
+            }
+            writer.flush();
+            // make sure data is on the card before the file gets renamed
+            outputStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to saving track to external storage (IOException): " + file.toString());
+            return false;
+        }
+    }
 
-            // add longitude and latitude
-            gpxTrack.append("\t\t\t<trkpt lat=\"");
-            gpxTrack.append(location.getLatitude());
-            gpxTrack.append("\" lon=\"");
-            gpxTrack.append(location.getLongitude());
-            gpxTrack.append("\">\n");
 
-            // add time
-            gpxTrack.append("\t\t\t\t<time>");
-            gpxTrack.append(dateFormat.format(new Date(location.getTime())));
-            gpxTrack.append("</time>\n");
+    /* Copies given file into zip archive */
+    private void addToZip(ZipOutputStream zipOutputStream, File file) throws IOException {
+        byte[] buffer = new byte[8192];
+        zipOutputStream.putNextEntry(new ZipEntry(file.getName()));
+        try (InputStream in = new FileInputStream(file)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                zipOutputStream.write(buffer, 0, count);
+            }
+        }
+        zipOutputStream.closeEntry();
+    }
 
-            // add altitude
-            gpxTrack.append("\t\t\t\t<ele>");
-            gpxTrack.append(location.getAltitude());
-            gpxTrack.append("</ele>\n");
 
-            // add closing tag
-            gpxTrack.append("\t\t\t</trkpt>\n");
+    /* Waits for remaining workers - deletes their files if they were meant for a zip archive */
+    private void discardExportedFiles(CompletionService<File> completionService, int remainingTracks, boolean zip) {
+        boolean interrupted = false;
+        for (int i = 0; i < remainingTracks; i++) {
+            try {
+                File file = completionService.take().get();
+                if (file != null && zip) {
+                    file.delete();
+                }
+            } catch (InterruptedException e) {
+                // keep draining - workers return right away once aborted
+                interrupted = true;
+                i--;
+            } catch (ExecutionException e) {
+                LogHelper.e(LOG_TAG, "Export worker failed: " + e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
+    }
+
 
-        // add closing track segment tag
-        gpxTrack.append("\t\t<trkseg>\n");
+    /**
+     * Inner interface: Receives progress of an export and can cancel it
+     */
+    public interface ExportProgressListener {
 
-        // add closing track tag
-        gpxTrack.append("\t</trk>\n");
+        /* Called from the exporting thread after a number of WayPoints has been written */
+        void onExportProgress(int exportedWayPoints, int totalWayPoints);
 
-        return gpxTrack.toString();
+        /* Polled from the exporting thread - return true to abort export */
+        boolean isCancelled();
     }
+    /**
+     * End of inner interface
+     */
 
 }
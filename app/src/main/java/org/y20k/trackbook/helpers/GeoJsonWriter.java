@@ -0,0 +1,103 @@
+/**
+ * GeoJsonWriter.java
+ * Implements the GeoJsonWriter class
+ * A GeoJsonWriter writes a Track object in GeoJSON format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * GeoJsonWriter class
+ * The track becomes a Feature with a LineString - WayPoint times are stored in the "coordTimes" property
+ */
+public class GeoJsonWriter implements TrackWriter, TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = GeoJsonWriter.class.getSimpleName();
+
+
+    @Override
+    public String getFileExtension() {
+        return FILE_TYPE_GEOJSON_EXTENSION;
+    }
+
+
+    /* Writes given track in GeoJSON format - coordinates first, then times */
+    @Override
+    public boolean writeTrack(Track track, Writer writer, ExportHelper.ExportProgressListener listener) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        FieldPosition fieldPosition = new FieldPosition(0);
+        StringBuffer buffer = new StringBuffer(64);
+        Date date = new Date();
+        int trackSize = track.getSize();
+
+        // write feature collection and geometry - longitude, latitude, altitude
+        writer.write("{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\n");
+        writer.write("\"geometry\":{\"type\":\"LineString\",\"coordinates\":[\n");
+        for (int i = 0; i < trackSize; i++) {
+            // report progress and check for cancellation every now and then - each WayPoint is visited twice
+            if (i % PROGRESS_INTERVAL == 0) {
+                if (listener.isCancelled()) {
+                    return false;
+                }
+                listener.onExportProgress(i / 2, trackSize);
+            }
+
+            buffer.setLength(0);
+            if (i > 0) {
+                buffer.append(",\n");
+            }
+            buffer.append('[').append(track.getLongitude(i)).append(',').append(track.getLatitude(i)).append(',').append(track.getAltitude(i)).append(']');
+            writer.append(buffer);
+        }
+        writer.write("\n]},\n");
+
+        // write properties
+        writer.write("\"properties\":{\"stepCount\":" + track.getStepCount() + ",\"coordTimes\":[\n");
+        for (int i = 0; i < trackSize; i++) {
+            if (i % PROGRESS_INTERVAL == 0) {
+                if (listener.isCancelled()) {
+                    return false;
+                }
+                listener.onExportProgress((trackSize + i) / 2, trackSize);
+            }
+
+            buffer.setLength(0);
+            if (i > 0) {
+                buffer.append(",\n");
+            }
+            date.setTime(track.getTime(i));
+            buffer.append('"');
+            dateFormat.format(date, buffer, fieldPosition);
+            buffer.append('"');
+            writer.append(buffer);
+        }
+        writer.write("\n]}}]}\n");
+        listener.onExportProgress(trackSize, trackSize);
+        return true;
+    }
+
+}
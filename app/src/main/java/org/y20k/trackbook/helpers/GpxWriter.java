@@ -0,0 +1,107 @@
+/**
+ * GpxWriter.java
+ * Implements the GpxWriter class
+ * A GpxWriter writes a Track object in GPX format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * GpxWriter class
+ */
+public class GpxWriter implements TrackWriter, TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = GpxWriter.class.getSimpleName();
+
+
+    @Override
+    public String getFileExtension() {
+        return FILE_TYPE_GPX_EXTENSION;
+    }
+
+
+    /* Writes given track in GPX format - WayPoint by WayPoint, reusing one buffer and one date formatter */
+    @Override
+    public boolean writeTrack(Track track, Writer writer, ExportHelper.ExportProgressListener listener) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        FieldPosition fieldPosition = new FieldPosition(0);
+        StringBuffer buffer = new StringBuffer(256);
+        Date date = new Date();
+
+        // write header
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\n" +
+                     "<gpx version=\"1.1\" creator=\"Transistor App (Android)\"\n" +
+                     "     xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                     "     xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n");
+
+        // write opening track tag and name of track
+        writer.write("\t<trk>\n");
+        writer.write("\t\t<name>test</name>\n");
+
+        // write opening track segment tag
+        writer.write("\t\t<trkseg>\n");
+
+        // write route points
+        int trackSize = track.getSize();
+        for (int i = 0; i < trackSize; i++) {
+            // report progress and check for cancellation every now and then
+            if (i % PROGRESS_INTERVAL == 0) {
+                if (listener.isCancelled()) {
+                    return false;
+                }
+                listener.onExportProgress(i, trackSize);
+            }
+
+            buffer.setLength(0);
+
+            // add longitude and latitude
+            buffer.append("\t\t\t<trkpt lat=\"").append(track.getLatitude(i)).append("\" lon=\"").append(track.getLongitude(i)).append("\">\n");
+
+            // add time
+            date.setTime(track.getTime(i));
+            buffer.append("\t\t\t\t<time>");
+            dateFormat.format(date, buffer, fieldPosition);
+            buffer.append("</time>\n");
+
+            // add altitude
+            buffer.append("\t\t\t\t<ele>").append(track.getAltitude(i)).append("</ele>\n");
+
+            // add closing tag
+            buffer.append("\t\t\t</trkpt>\n");
+
+            writer.append(buffer);
+        }
+
+        // write closing track segment, track and gpx tags
+        writer.write("\t\t</trkseg>\n");
+        writer.write("\t</trk>\n");
+        writer.write("</gpx>\n");
+        listener.onExportProgress(trackSize, trackSize);
+        return true;
+    }
+
+}
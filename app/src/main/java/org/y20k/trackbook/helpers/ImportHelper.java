@@ -0,0 +1,305 @@
+/**
+ * ImportHelper.java
+ * Implements the ImportHelper class
+ * A ImportHelper can read a GPX file into a Track object and store it as a recording
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.y20k.trackbook.core.Track;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+
+/**
+ * ImportHelper class
+ * GPX files are read with a pull parser - track points are handed to Track.addWayPoint one at a time,
+ * so distance and stopovers are computed the same way as during a recording.
+ * Track points without a time stamp get the time of the previous track point - or of the first
+ * track point with a time stamp. Files without any time stamps get one second steps from the time
+ * of import.
+ */
+public class ImportHelper implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = ImportHelper.class.getSimpleName();
+
+
+    /* Results of an import */
+    public static final int RESULT_IMPORTED = 0;
+    public static final int RESULT_DUPLICATE = 1;
+    public static final int RESULT_FAILED = 2;
+
+
+    /* Main class variables */
+    private final Context mContext;
+
+
+    /* Constructor */
+    public ImportHelper(Context context) {
+        mContext = context;
+    }
+
+
+    /* Imports GPX file behind given uri and saves it as a recording - an existing recording with the same start is kept */
+    public Result importGpx(StorageHelper storageHelper, Uri uri) {
+        LogHelper.v(LOG_TAG, "Importing GPX file: " + uri.toString());
+
+        Track track;
+        try (InputStream in = new BufferedInputStream(mContext.getContentResolver().openInputStream(uri))) {
+            track = readGpx(in);
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            LogHelper.e(LOG_TAG, "Unable to import GPX file: " + uri.toString() + " (" + e.toString() + ")");
+            return new Result(RESULT_FAILED, null);
+        }
+
+        if (track == null) {
+            LogHelper.e(LOG_TAG, "GPX file does not contain any track points: " + uri.toString());
+            return new Result(RESULT_FAILED, null);
+        } else if (storageHelper.trackFileExists(track)) {
+            // track files are named after the start of the recording - importing the same file twice would overwrite it
+            LogHelper.w(LOG_TAG, "A track with the same start has already been stored: " + uri.toString());
+            return new Result(RESULT_DUPLICATE, track);
+        } else if (storageHelper.saveTrack(track, FILE_IMPORTED_TRACK)) {
+            return new Result(RESULT_IMPORTED, track);
+        } else {
+            return new Result(RESULT_FAILED, null);
+        }
+    }
+
+
+    /* Reads track points of a GPX stream into a new track - returns null if there are none */
+    public static Track readGpx(InputStream in) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(in, null);
+        return readGpx(parser);
+    }
+
+
+    /* Reads track points from a parser set up with namespace processing into a new track - returns null if there are none */
+    public static Track readGpx(XmlPullParser parser) throws IOException, XmlPullParserException {
+        // one Location object is reused for all track points - Track copies its values
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        Track track = null;
+        long firstTime = -1;
+        long lastTime = -1;
+        List<Location> untimedLocations = new ArrayList<>();
+
+        boolean inPoint = false;
+        String element = null;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    String name = parser.getName();
+                    if ("trkpt".equals(name) || "rtept".equals(name)) {
+                        // start of track point - coordinates are attributes
+                        inPoint = true;
+                        location.reset();
+                        location.setProvider(LocationManager.GPS_PROVIDER);
+                        location.setLatitude(Double.parseDouble(parser.getAttributeValue(null, "lat")));
+                        location.setLongitude(Double.parseDouble(parser.getAttributeValue(null, "lon")));
+                        location.setTime(lastTime);
+                    } else if (inPoint) {
+                        element = name;
+                    }
+                    break;
+
+                case XmlPullParser.TEXT:
+                    if ("ele".equals(element)) {
+                        location.setAltitude(Double.parseDouble(parser.getText().trim()));
+                    } else if ("time".equals(element)) {
+                        // a time stamp that cannot be parsed keeps the time of the previous track point
+                        long time = parseTime(parser.getText().trim(), calendar);
+                        if (time >= 0) {
+                            location.setTime(time);
+                        } else {
+                            LogHelper.w(LOG_TAG, "Unable to parse time stamp of track point: " + parser.getText());
+                        }
+                    }
+                    break;
+
+                case XmlPullParser.END_TAG:
+                    name = parser.getName();
+                    if ("trkpt".equals(name) || "rtept".equals(name)) {
+                        // end of track point - add it to the track
+                        inPoint = false;
+                        if (location.getTime() < 0) {
+                            // no time stamp so far - hold back track point until the first time stamp is known
+                            untimedLocations.add(new Location(location));
+                        } else {
+                            if (track == null) {
+                                firstTime = location.getTime();
+                                track = new Track(CURRENT_TRACK_FORMAT_VERSION, 0f, 0, 0f, new Date(firstTime), null);
+                                for (Location untimedLocation : untimedLocations) {
+                                    untimedLocation.setTime(firstTime);
+                                    addTrackPoint(track, untimedLocation, firstTime);
+                                }
+                                untimedLocations.clear();
+                            }
+                            addTrackPoint(track, location, firstTime);
+                            lastTime = location.getTime();
+                        }
+                    }
+                    element = null;
+                    break;
+            }
+            eventType = parser.next();
+        }
+
+        if (track == null && !untimedLocations.isEmpty()) {
+            // no time stamps at all - one second steps from the time of import
+            LogHelper.w(LOG_TAG, "GPX file does not contain any time stamps.");
+            firstTime = System.currentTimeMillis();
+            track = new Track(CURRENT_TRACK_FORMAT_VERSION, 0f, 0, 0f, new Date(firstTime), null);
+            for (int i = 0; i < untimedLocations.size(); i++) {
+                Location untimedLocation = untimedLocations.get(i);
+                untimedLocation.setTime(firstTime + i * 1000L);
+                addTrackPoint(track, untimedLocation, firstTime);
+                lastTime = untimedLocation.getTime();
+            }
+        }
+
+        if (track != null) {
+            track.setRecordingStop(new Date(lastTime));
+            track.setDuration(lastTime - firstTime);
+        }
+        return track;
+    }
+
+
+    /* Adds a track point to given track - stopovers are detected via elapsed time since the first track point */
+    private static void addTrackPoint(Track track, Location location, long firstTime) {
+        location.setElapsedRealtimeNanos((location.getTime() - firstTime) * 1000000L);
+        track.addWayPoint(location);
+    }
+
+
+    /* Parses an ISO 8601 time stamp like 2017-07-14T02:40:00.123+02:00 - without creating a date formatter - returns -1 if it cannot be parsed */
+    private static long parseTime(String time, Calendar calendar) {
+        // date and time down to minutes are required - yyyy-MM-ddThh:mm
+        int length = time.length();
+        if (length < 16 || time.charAt(4) != '-' || time.charAt(7) != '-' || (time.charAt(10) != 'T' && time.charAt(10) != ' ') || time.charAt(13) != ':') {
+            return -1;
+        }
+        int year = parseDigits(time, 0, 4);
+        int month = parseDigits(time, 5, 7);
+        int day = parseDigits(time, 8, 10);
+        int hour = parseDigits(time, 11, 13);
+        int minute = parseDigits(time, 14, 16);
+
+        // optional seconds
+        int second = 0;
+        int position = 16;
+        if (position < length && time.charAt(position) == ':') {
+            second = parseDigits(time, 17, 19);
+            position = 19;
+        }
+        if (year < 0 || month < 1 || day < 1 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        long millis = calendar.getTimeInMillis();
+
+        // optional fraction of a second
+        if (position < length && (time.charAt(position) == '.' || time.charAt(position) == ',')) {
+            int start = ++position;
+            while (position < length && Character.isDigit(time.charAt(position))) {
+                position++;
+            }
+            for (int i = start, factor = 100; i < start + 3 && i < position; i++, factor /= 10) {
+                millis += (time.charAt(i) - '0') * factor;
+            }
+        }
+
+        // optional time zone offset - Z, +hh:mm, +hhmm or +hh
+        if (position < length && (time.charAt(position) == '+' || time.charAt(position) == '-')) {
+            int sign = time.charAt(position) == '-' ? -1 : 1;
+            int hours = parseDigits(time, position + 1, position + 3);
+            position += 3;
+            if (position < length && time.charAt(position) == ':') {
+                position++;
+            }
+            int minutes = position < length ? parseDigits(time, position, position + 2) : 0;
+            if (hours < 0 || minutes < 0) {
+                return -1;
+            }
+            millis -= sign * (hours * 60 + minutes) * 60000L;
+        }
+        return millis;
+    }
+
+
+    /* Parses the digits between start and end - returns -1 if there are other characters or too few */
+    private static int parseDigits(String text, int start, int end) {
+        if (end > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+
+    /**
+     * Inner class: Outcome of an import - the track is null if the import failed
+     */
+    public static final class Result {
+
+        private final int mResult;
+        private final Track mTrack;
+
+        Result(int result, Track track) {
+            mResult = result;
+            mTrack = track;
+        }
+
+        /* Getters */
+        public int getResult() {
+            return mResult;
+        }
+
+        public Track getTrack() {
+            return mTrack;
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
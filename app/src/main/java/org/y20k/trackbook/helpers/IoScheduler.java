@@ -0,0 +1,241 @@
+/**
+ * IoScheduler.java
+ * Implements the IoScheduler class
+ * A IoScheduler runs storage work off the main thread - reads and writes in separate lanes
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * IoScheduler class
+ * Jobs are identified by owner (usually a fragment) and key. A new job replaces the pending job of
+ * the same owner and key: obsolete reads are interrupted, obsolete writes are dropped if they have
+ * not started yet. Results are delivered on the main thread - but only while the job is current and
+ * its owner has not been cancelled, e.g. in onDestroyView. Cancelling an owner stops its reads,
+ * its writes still run to completion - only their results are not delivered.
+ */
+public final class IoScheduler {
+
+    /* Define log tag */
+    private static final String LOG_TAG = IoScheduler.class.getSimpleName();
+
+
+    /* Number of threads in the read lane */
+    private static final int READ_LANE_THREADS = 2;
+
+
+    /* Singleton instance */
+    private static IoScheduler sInstance;
+
+
+    /* Main class variables */
+    private final ExecutorService mReadLane;
+    private final ExecutorService mWriteLane;
+    private final Handler mMainHandler;
+    private final List<Job<?>> mJobs;
+
+
+    /* Returns the process-wide instance - creates it on first use */
+    public static synchronized IoScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new IoScheduler();
+        }
+        return sInstance;
+    }
+
+
+    /* Constructor */
+    private IoScheduler() {
+        mReadLane = Executors.newFixedThreadPool(READ_LANE_THREADS, createThreadFactory("read"));
+        // a single writer keeps saves in order
+        mWriteLane = Executors.newSingleThreadExecutor(createThreadFactory("write"));
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mJobs = new ArrayList<>();
+    }
+
+
+    /* Runs given work in the read lane - replaces and interrupts a pending read of the same owner and key */
+    public <T> void read(Object owner, String key, Callable<T> work, Callback<T> callback) {
+        submit(mReadLane, true, owner, key, work, callback);
+    }
+
+
+    /* Runs given work in the write lane - replaces a pending write of the same owner and key if it has not started yet */
+    public <T> void write(Object owner, String key, Callable<T> work, Callback<T> callback) {
+        submit(mWriteLane, false, owner, key, work, callback);
+    }
+
+
+    /* Cancels the pending job of given owner and key - its result will not be delivered */
+    public synchronized void cancel(Object owner, String key) {
+        cancel(owner, key, false);
+    }
+
+
+    /* Cancels all pending jobs of given owner - call when the owner goes away */
+    public synchronized void cancelAll(Object owner) {
+        Iterator<Job<?>> iterator = mJobs.iterator();
+        while (iterator.hasNext()) {
+            Job<?> job = iterator.next();
+            if (job.mOwner == owner) {
+                job.cancel(false);
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /* Replaces pending job of same owner and key and hands the new job to given lane */
+    private synchronized <T> void submit(ExecutorService lane, boolean interruptible, Object owner, String key, Callable<T> work, Callback<T> callback) {
+        cancel(owner, key, true);
+        Job<T> job = new Job<>(owner, key, work, callback, interruptible);
+        mJobs.add(job);
+        job.mFuture = lane.submit(job);
+    }
+
+
+    /* Cancels matching jobs - replaced jobs do not run at all, unless they are writes that have already started */
+    private void cancel(Object owner, String key, boolean replaced) {
+        Iterator<Job<?>> iterator = mJobs.iterator();
+        while (iterator.hasNext()) {
+            Job<?> job = iterator.next();
+            if (job.mOwner == owner && job.mKey.equals(key)) {
+                job.cancel(replaced);
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /* Removes finished job - returns false if it has been cancelled or replaced in the meantime */
+    private synchronized boolean finish(Job<?> job) {
+        return mJobs.remove(job) && !job.mCancelled;
+    }
+
+
+    /* Creates a factory for background threads with given name */
+    private static ThreadFactory createThreadFactory(final String laneName) {
+        return new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "trackbook-io-" + laneName + "-" + (++mCount));
+            }
+        };
+    }
+
+
+    /**
+     * Inner interface: Receives the result of a job on the main thread
+     */
+    public interface Callback<T> {
+
+        /* Called on the main thread - result may be null if the work failed */
+        void onResult(T result);
+    }
+    /**
+     * End of inner interface
+     */
+
+
+    /**
+     * Inner class: A unit of work with its callback - references are dropped on cancellation
+     */
+    private final class Job<T> implements Runnable {
+
+        private final Object mOwner;
+        private final String mKey;
+        private final boolean mInterruptible;
+        private volatile Callable<T> mWork;
+        private volatile Callback<T> mCallback;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        Job(Object owner, String key, Callable<T> work, Callback<T> callback, boolean interruptible) {
+            mOwner = owner;
+            mKey = key;
+            mWork = work;
+            mCallback = callback;
+            mInterruptible = interruptible;
+        }
+
+        @Override
+        public void run() {
+            Callable<T> work = mWork;
+            if (work == null) {
+                return;
+            }
+
+            T result;
+            try {
+                result = work.call();
+            } catch (Exception e) {
+                if (!mCancelled) {
+                    LogHelper.e(LOG_TAG, "Unable to complete " + mKey + ": " + e.toString());
+                }
+                result = null;
+            }
+            mWork = null;
+
+            // deliver on main thread - if still wanted by then
+            final T deliveredResult = result;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback<T> callback = mCallback;
+                    mCallback = null;
+                    if (finish(Job.this) && callback != null) {
+                        callback.onResult(deliveredResult);
+                    }
+                }
+            });
+        }
+
+        void cancel(boolean replaced) {
+            mCancelled = true;
+            mCallback = null;
+            // writes of a cancelled owner still run - only a newer write of the same key makes them obsolete
+            if (mInterruptible || replaced) {
+                mWork = null;
+                if (mFuture != null) {
+                    mFuture.cancel(mInterruptible);
+                }
+            }
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
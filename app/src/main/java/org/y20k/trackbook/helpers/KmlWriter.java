@@ -0,0 +1,88 @@
+/**
+ * KmlWriter.java
+ * Implements the KmlWriter class
+ * A KmlWriter writes a Track object in KML format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+
+/**
+ * KmlWriter class
+ * The track becomes a Placemark with a LineString - KML coordinates have no timestamps
+ */
+public class KmlWriter implements TrackWriter, TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = KmlWriter.class.getSimpleName();
+
+
+    @Override
+    public String getFileExtension() {
+        return FILE_TYPE_KML_EXTENSION;
+    }
+
+
+    /* Writes given track in KML format - WayPoint by WayPoint, reusing one buffer */
+    @Override
+    public boolean writeTrack(Track track, Writer writer, ExportHelper.ExportProgressListener listener) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        StringBuilder buffer = new StringBuilder(64);
+
+        // write header, document and placemark
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                     "<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n");
+        writer.write("\t<Document>\n");
+        writer.write("\t\t<Placemark>\n");
+        writer.write("\t\t\t<name>" + dateFormat.format(track.getRecordingStart()) + "</name>\n");
+
+        // write opening line string tag
+        writer.write("\t\t\t<LineString>\n");
+        writer.write("\t\t\t\t<tessellate>1</tessellate>\n");
+        writer.write("\t\t\t\t<coordinates>\n");
+
+        // write coordinates - longitude, latitude, altitude
+        int trackSize = track.getSize();
+        for (int i = 0; i < trackSize; i++) {
+            // report progress and check for cancellation every now and then
+            if (i % PROGRESS_INTERVAL == 0) {
+                if (listener.isCancelled()) {
+                    return false;
+                }
+                listener.onExportProgress(i, trackSize);
+            }
+
+            buffer.setLength(0);
+            buffer.append("\t\t\t\t\t").append(track.getLongitude(i)).append(',').append(track.getLatitude(i)).append(',').append(track.getAltitude(i)).append('\n');
+            writer.append(buffer);
+        }
+
+        // write closing tags
+        writer.write("\t\t\t\t</coordinates>\n");
+        writer.write("\t\t\t</LineString>\n");
+        writer.write("\t\t</Placemark>\n");
+        writer.write("\t</Document>\n");
+        writer.write("</kml>\n");
+        listener.onExportProgress(trackSize, trackSize);
+        return true;
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * LocationFilter.java
+ * Implements the LocationFilter class
+ * A LocationFilter smoothes the location fixes of a recording with a constant-velocity Kalman filter
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.location.Location;
+
+
+/**
+ * LocationFilter class
+ * State: position and velocity east and north, in meters relative to the first fix of a session.
+ * Both axes share dynamics (constant velocity, random acceleration) and measurement noise (the
+ * accuracy of the fix), so they share one covariance matrix - a fix costs a few multiplications.
+ * Gps and network fixes are fused in the same filter - each weighted by its accuracy.
+ * The filter writes the estimate into the given fix: no Location objects are created.
+ */
+public class LocationFilter implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = LocationFilter.class.getSimpleName();
+
+
+    /* Filter parameters */
+    private static final double ACCELERATION_VARIANCE = 1.0; // (m/s²)² - process noise
+    private static final double DEFAULT_ACCURACY = 50.0; // meters - for fixes without accuracy
+    private static final double OUTLIER_DISTANCE = 5.0; // standard deviations - fixes farther away restart the filter
+    private static final double METERS_PER_DEGREE = 111195.0;
+
+
+    /* Main class variables */
+    private boolean mInitialized;
+    private double mReferenceLatitude;
+    private double mReferenceLongitude;
+    private double mMetersPerDegreeLongitude;
+    private long mElapsedRealtimeNanos;
+    private double mEast;
+    private double mNorth;
+    private double mVelocityEast;
+    private double mVelocityNorth;
+    private double mP00; // covariance position - position
+    private double mP01; // covariance position - velocity
+    private double mP11; // covariance velocity - velocity
+
+
+    /* Resets the filter - the next fix starts a new session */
+    public void reset() {
+        mInitialized = false;
+    }
+
+
+    /* Filters given fix in place - its position and accuracy are replaced by the estimate */
+    public void filter(Location location) {
+        double accuracy = location.hasAccuracy() && location.getAccuracy() > 0 ? location.getAccuracy() : DEFAULT_ACCURACY;
+        double variance = accuracy * accuracy;
+        long elapsedRealtimeNanos = location.getElapsedRealtimeNanos();
+
+        // first fix - or gap long enough to be a stopover: start over
+        if (!mInitialized || LocationHelper.isStopOver(mElapsedRealtimeNanos, elapsedRealtimeNanos)) {
+            initialize(location, variance);
+            return;
+        }
+
+        // predict - fixes arriving out of order are treated as simultaneous
+        double dt = Math.max(0, elapsedRealtimeNanos - mElapsedRealtimeNanos) / (double) ONE_NANOSECOND;
+        predict(dt);
+        mElapsedRealtimeNanos = Math.max(mElapsedRealtimeNanos, elapsedRealtimeNanos);
+
+        // innovation
+        double east = (location.getLongitude() - mReferenceLongitude) * mMetersPerDegreeLongitude;
+        double north = (location.getLatitude() - mReferenceLatitude) * METERS_PER_DEGREE;
+        double innovationEast = east - mEast;
+        double innovationNorth = north - mNorth;
+        double innovationVariance = mP00 + variance;
+        if (innovationEast * innovationEast + innovationNorth * innovationNorth > OUTLIER_DISTANCE * OUTLIER_DISTANCE * innovationVariance) {
+            // fix does not fit the model at all (e.g. after a tunnel) - trust it and start over
+            LogHelper.v(LOG_TAG, "Fix far off the estimate. Restarting filter.");
+            initialize(location, variance);
+            return;
+        }
+
+        // update
+        double gainPosition = mP00 / innovationVariance;
+        double gainVelocity = mP01 / innovationVariance;
+        mEast += gainPosition * innovationEast;
+        mNorth += gainPosition * innovationNorth;
+        mVelocityEast += gainVelocity * innovationEast;
+        mVelocityNorth += gainVelocity * innovationNorth;
+        double p00 = mP00;
+        double p01 = mP01;
+        mP00 = p00 - gainPosition * p00;
+        mP01 = p01 - gainPosition * p01;
+        mP11 = mP11 - gainVelocity * p01;
+
+        // write estimate into fix
+        location.setLatitude(mReferenceLatitude + mNorth / METERS_PER_DEGREE);
+        location.setLongitude(mReferenceLongitude + mEast / mMetersPerDegreeLongitude);
+        location.setAccuracy((float) Math.sqrt(mP00));
+    }
+
+
+    /* Starts the filter at given fix - position as measured, velocity unknown */
+    private void initialize(Location location, double variance) {
+        mInitialized = true;
+        mReferenceLatitude = location.getLatitude();
+        mReferenceLongitude = location.getLongitude();
+        mMetersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(mReferenceLatitude));
+        mElapsedRealtimeNanos = location.getElapsedRealtimeNanos();
+        mEast = 0;
+        mNorth = 0;
+        if (location.hasSpeed() && location.hasBearing()) {
+            double bearing = Math.toRadians(location.getBearing());
+            mVelocityEast = location.getSpeed() * Math.sin(bearing);
+            mVelocityNorth = location.getSpeed() * Math.cos(bearing);
+        } else {
+            mVelocityEast = 0;
+            mVelocityNorth = 0;
+        }
+        mP00 = variance;
+        mP01 = 0;
+        mP11 = 100.0; // (10 m/s)² - any speed up to a car in town
+    }
+
+
+    /* Advances state and covariance by dt seconds */
+    private void predict(double dt) {
+        mEast += mVelocityEast * dt;
+        mNorth += mVelocityNorth * dt;
+        double dt2 = dt * dt;
+        mP00 += 2 * dt * mP01 + dt2 * mP11 + ACCELERATION_VARIANCE * dt2 * dt2 / 4;
+        mP01 += dt * mP11 + ACCELERATION_VARIANCE * dt2 * dt / 2;
+        mP11 += ACCELERATION_VARIANCE * dt2;
+    }
+
+}
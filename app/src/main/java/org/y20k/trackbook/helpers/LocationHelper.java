@@ -23,6 +23,7 @@ import android.location.LocationManager;
 import android.os.SystemClock;
 import android.provider.Settings;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
@@ -36,6 +37,9 @@ public final class LocationHelper implements TrackbookKeys {
     /* Define log tag */
     private static final String LOG_TAG = LocationHelper.class.getSimpleName();
 
+    /* Location providers - the index is used as compact provider id */
+    private static final String[] PROVIDERS = {LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER, "fused"};
+
 
     /* Determines last known location  */
     public static Location determineLastKnownLocation(LocationManager locationManager) {
@@ -175,11 +179,37 @@ public final class LocationHelper implements TrackbookKeys {
 
     /* Checks if given location is a stop over */
     public static boolean isStopOver(Location lastLocation, Location newLocation) {
-        long timeDifference =  newLocation.getElapsedRealtimeNanos() - lastLocation.getElapsedRealtimeNanos();
+        return isStopOver(lastLocation.getElapsedRealtimeNanos(), newLocation.getElapsedRealtimeNanos());
+    }
+
+
+    /* Checks if a location is a stop over - based on the elapsed realtime of it and its successor */
+    public static boolean isStopOver(long lastElapsedRealtimeNanos, long newElapsedRealtimeNanos) {
+        long timeDifference =  newElapsedRealtimeNanos - lastElapsedRealtimeNanos;
         return timeDifference >= FIVE_MINUTES_IN_NANOSECONDS;
     }
 
 
+    /* Converts a provider name into a compact id - unknown providers are treated as gps */
+    public static byte getProviderId(String provider) {
+        for (int i = 0; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(provider)) {
+                return (byte) i;
+            }
+        }
+        return 0;
+    }
+
+
+    /* Converts a compact provider id into the provider name */
+    public static String getProviderName(byte providerId) {
+        if (providerId >= 0 && providerId < PROVIDERS.length) {
+            return PROVIDERS[providerId];
+        }
+        return PROVIDERS[0];
+    }
+
+
     /* Registers gps and network location listeners */
     public static void registerLocationListeners(LocationManager locationManager, LocationListener gpsListener, LocationListener networkListener) {
         LogHelper.v(LOG_TAG, "Registering location listeners.");
@@ -213,6 +243,26 @@ public final class LocationHelper implements TrackbookKeys {
     }
 
 
+    /* Registers gps, network and passive location listeners with the requests of given scheduler - re-registering replaces earlier requests */
+    public static void registerLocationListeners(LocationManager locationManager, LocationScheduler scheduler, LocationListener gpsListener, LocationListener networkListener, LocationListener passiveListener) {
+        LogHelper.v(LOG_TAG, "Registering location listeners. gps: " + scheduler.getGpsInterval() + " ms | network: " + scheduler.getNetworkInterval() + " ms | passive: " + scheduler.isPassive());
+
+        // get location providers
+        List locationProviders = locationManager.getAllProviders();
+
+        // request updates - an interval of 0 means the provider is not needed right now (passive fixes cost nothing, so take all of them)
+        if (gpsListener != null && locationProviders.contains(LocationManager.GPS_PROVIDER)) {
+            requestLocationUpdates(locationManager, LocationManager.GPS_PROVIDER, scheduler.getGpsInterval() > 0, scheduler.getGpsInterval(), scheduler.getGpsDistance(), gpsListener);
+        }
+        if (networkListener != null && locationProviders.contains(LocationManager.NETWORK_PROVIDER)) {
+            requestLocationUpdates(locationManager, LocationManager.NETWORK_PROVIDER, scheduler.getNetworkInterval() > 0, scheduler.getNetworkInterval(), scheduler.getNetworkDistance(), networkListener);
+        }
+        if (passiveListener != null && locationProviders.contains(LocationManager.PASSIVE_PROVIDER)) {
+            requestLocationUpdates(locationManager, LocationManager.PASSIVE_PROVIDER, scheduler.isPassive(), 0, 0, passiveListener);
+        }
+    }
+
+
     /* Removes gps and network location listeners */
     public static void removeLocationListeners(LocationManager locationManager, LocationListener gpsListener, LocationListener networkListener) {
         LogHelper.v(LOG_TAG, "Removing location listeners.");
@@ -247,6 +297,21 @@ public final class LocationHelper implements TrackbookKeys {
     }
 
 
+    /* Requests updates from given provider - or removes the listener if the provider is not needed */
+    private static void requestLocationUpdates(LocationManager locationManager, String provider, boolean needed, long interval, float distance, LocationListener listener) {
+        try {
+            if (needed) {
+                locationManager.requestLocationUpdates(provider, interval, distance, listener);
+            } else {
+                locationManager.removeUpdates(listener);
+            }
+        } catch (SecurityException e) {
+            // catches permission problems
+            e.printStackTrace();
+        }
+    }
+
+
     /* Converts milliseconds to mm:ss or hh:mm:ss */
     public static String convertToReadableTime(long milliseconds, boolean includeHours) {
 
@@ -266,6 +331,23 @@ public final class LocationHelper implements TrackbookKeys {
     }
 
 
+    /* Converts meters to a distance string in the unit system of the device */
+    public static String convertToReadableDistance(float meters) {
+        float trackDistance;
+        String unit;
+
+        if (getUnitSystem(Locale.getDefault()) == IMPERIAL) {
+            // convert track distance to feet
+            trackDistance = meters * 3.28084f;
+            unit = "ft";
+        } else {
+            trackDistance = meters;
+            unit = "m";
+        }
+        return String.format (Locale.ENGLISH, "%.0f", trackDistance) + unit;
+    }
+
+
     /* Check if any location provider is enabled */
     public static boolean checkLocationSystemSetting(Context context) {
         int locationSettingState = 0;
@@ -278,6 +360,20 @@ public final class LocationHelper implements TrackbookKeys {
     }
 
 
+    /* Determines which unit system the device is using (metric or imperial) */
+    private static int getUnitSystem(Locale locale) {
+        // America (US), Liberia (LR), Myanmar(MM) use the imperial system
+        List<String> imperialSystemCountries = Arrays.asList("US", "LR", "MM");
+        String countryCode = locale.getCountry();
+
+        if (imperialSystemCountries.contains(countryCode)){
+            return IMPERIAL;
+        } else {
+            return METRIC;
+        }
+    }
+
+
     /* Checks whether two location providers are the same */
     private static boolean isSameProvider(String provider1, String provider2) {
         // credit: the isSameProvider method was sample code from: https://developer.android.com/guide/topics/location/strategies.html
@@ -0,0 +1,221 @@
+/**
+ * LocationScheduler.java
+ * Implements the LocationScheduler class
+ * A LocationScheduler adapts the location requests of a recording to speed, stopovers and accuracy
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.y20k.trackbook.core.Track;
+
+
+/**
+ * LocationScheduler class
+ * WayPoints need 10 m (gps) and 12 seconds between them (see LocationHelper.isNewWayPoint), so
+ * fixes are requested only as often as that can produce a new WayPoint at the current speed.
+ * Network fixes are requested only while gps accuracy is poor. Once the last WayPoint has become
+ * a stopover (LocationHelper.isStopOver), gps is switched off: network fixes - or gps fixes once a
+ * minute, if there is no network provider - watch for movement, which switches gps back on.
+ * Passive fixes are taken only while gps is off, so the app does not receive its own gps fixes twice.
+ * The scheduler keeps primitive state only - evaluating a fix does not allocate.
+ */
+public class LocationScheduler implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = LocationScheduler.class.getSimpleName();
+
+
+    /* Modes */
+    public static final int MODE_MOVING = 0;
+    public static final int MODE_STATIONARY = 1;
+
+    /* Request intervals (milliseconds) and distances (meters) */
+    private static final long FAST_INTERVAL = 3000;
+    private static final long NORMAL_INTERVAL = 6000;
+    private static final long SLOW_INTERVAL = 10000;
+    private static final long STATIONARY_INTERVAL = 60000;
+    private static final float GPS_DISTANCE = 5f; // half of the minimal WayPoint distance
+    private static final float NETWORK_DISTANCE = 30f; // minimal WayPoint distance of network fixes
+
+    /* Thresholds */
+    private static final float FAST_SPEED = 10f; // m/s
+    private static final float NORMAL_SPEED = 2f; // m/s
+    private static final float GOOD_ACCURACY = 20f; // meters - network fixes are not needed
+    private static final float SPEED_SMOOTHING = 0.3f; // weight of the latest speed sample
+
+
+    /* Main class variables */
+    private final Track mTrack;
+    private final boolean mGpsAvailable;
+    private final boolean mNetworkAvailable;
+    private final float[] mDistanceResult = new float[1];
+    private int mMode;
+    private float mSpeed;
+    private float mGpsAccuracy;
+    private boolean mHasPreviousFix;
+    private double mPreviousLatitude;
+    private double mPreviousLongitude;
+    private long mPreviousElapsedRealtimeNanos;
+    private long mMovingSinceElapsedRealtimeNanos;
+    private long mGpsInterval;
+    private float mGpsDistance;
+    private long mNetworkInterval;
+    private boolean mPassive;
+
+
+    /* Constructor */
+    public LocationScheduler(Track track, boolean gpsAvailable, boolean networkAvailable) {
+        mTrack = track;
+        mGpsAvailable = gpsAvailable;
+        mNetworkAvailable = networkAvailable;
+        mMode = MODE_MOVING;
+        mGpsAccuracy = Float.MAX_VALUE;
+        updateRequests();
+    }
+
+
+    /* Evaluates a location fix - returns true if the location requests have to be changed */
+    public boolean onLocationChanged(Location location) {
+        // estimate speed - from the fix, or from the distance to the previous fix
+        long elapsedRealtimeNanos = location.getElapsedRealtimeNanos();
+        float speed;
+        if (location.hasSpeed()) {
+            speed = location.getSpeed();
+        } else if (mHasPreviousFix && elapsedRealtimeNanos > mPreviousElapsedRealtimeNanos) {
+            Location.distanceBetween(mPreviousLatitude, mPreviousLongitude, location.getLatitude(), location.getLongitude(), mDistanceResult);
+            speed = mDistanceResult[0] / ((float) (elapsedRealtimeNanos - mPreviousElapsedRealtimeNanos) / ONE_NANOSECOND);
+        } else {
+            speed = mSpeed;
+        }
+        mSpeed = mHasPreviousFix ? mSpeed + SPEED_SMOOTHING * (speed - mSpeed) : speed;
+        mHasPreviousFix = true;
+        mPreviousLatitude = location.getLatitude();
+        mPreviousLongitude = location.getLongitude();
+        mPreviousElapsedRealtimeNanos = elapsedRealtimeNanos;
+
+        // remember accuracy of gps
+        if (LocationManager.GPS_PROVIDER.equals(location.getProvider()) && location.hasAccuracy()) {
+            mGpsAccuracy = location.getAccuracy();
+        }
+
+        // stationary: any fix far enough from the last WayPoint means movement
+        if (mMode == MODE_STATIONARY && getDistanceToLastWayPoint(location) > Math.max(NETWORK_DISTANCE, location.getAccuracy())) {
+            LogHelper.v(LOG_TAG, "Movement detected. Switching gps on.");
+            mMode = MODE_MOVING;
+            mMovingSinceElapsedRealtimeNanos = elapsedRealtimeNanos;
+            mGpsAccuracy = Float.MAX_VALUE;
+        }
+        return updateRequests();
+    }
+
+
+    /* Checks for a stopover - call periodically, returns true if the location requests have to be changed */
+    public boolean onTimer(long elapsedRealtimeNanos) {
+        // no new WayPoint for a stopover's time - counted from the last WayPoint, or from the end of the last stationary phase
+        int trackSize = mTrack.getSize();
+        long lastActivity = trackSize > 0 ? Math.max(mTrack.getElapsedRealtimeNanos(trackSize - 1), mMovingSinceElapsedRealtimeNanos) : elapsedRealtimeNanos;
+        if (mMode == MODE_MOVING && LocationHelper.isStopOver(lastActivity, elapsedRealtimeNanos)) {
+            LogHelper.v(LOG_TAG, "Stopover detected. Switching gps off.");
+            mMode = MODE_STATIONARY;
+            mSpeed = 0f;
+        }
+        return updateRequests();
+    }
+
+
+    /* Getters for the current location requests - an interval of 0 means no request */
+    public int getMode() {
+        return mMode;
+    }
+
+    public long getGpsInterval() {
+        return mGpsInterval;
+    }
+
+    public float getGpsDistance() {
+        return mGpsDistance;
+    }
+
+    public long getNetworkInterval() {
+        return mNetworkInterval;
+    }
+
+    public float getNetworkDistance() {
+        return NETWORK_DISTANCE;
+    }
+
+    public boolean isPassive() {
+        return mPassive;
+    }
+
+
+    /* Checks if updates from given provider are requested by the app itself - passive fixes from it are duplicates */
+    public boolean isRequested(String provider) {
+        return (LocationManager.GPS_PROVIDER.equals(provider) && mGpsInterval > 0)
+                || (LocationManager.NETWORK_PROVIDER.equals(provider) && mNetworkInterval > 0);
+    }
+
+
+    /* Computes location requests for current state - returns true if they changed */
+    private boolean updateRequests() {
+        long gpsInterval;
+        float gpsDistance = GPS_DISTANCE;
+        long networkInterval;
+        boolean passive;
+
+        if (mMode == MODE_MOVING || !mNetworkAvailable) {
+            // moving - or stationary without network provider: gps at a rate matching the speed
+            if (!mGpsAvailable) {
+                gpsInterval = 0;
+            } else if (mMode == MODE_STATIONARY) {
+                gpsInterval = STATIONARY_INTERVAL;
+                gpsDistance = NETWORK_DISTANCE;
+            } else if (mSpeed >= FAST_SPEED) {
+                gpsInterval = FAST_INTERVAL;
+            } else if (mSpeed >= NORMAL_SPEED) {
+                gpsInterval = NORMAL_INTERVAL;
+            } else {
+                gpsInterval = SLOW_INTERVAL;
+            }
+            // network only as long as gps has no good fix
+            networkInterval = mNetworkAvailable && (gpsInterval == 0 || mGpsAccuracy > GOOD_ACCURACY) ? NORMAL_INTERVAL : 0;
+            // passive only while gps is off - it would hand back the app's own gps fixes
+            passive = gpsInterval == 0;
+        } else {
+            // stationary: network watches for movement, fixes requested by other apps come for free
+            gpsInterval = 0;
+            networkInterval = STATIONARY_INTERVAL;
+            passive = true;
+        }
+
+        boolean changed = gpsInterval != mGpsInterval || gpsDistance != mGpsDistance || networkInterval != mNetworkInterval || passive != mPassive;
+        mGpsInterval = gpsInterval;
+        mGpsDistance = gpsDistance;
+        mNetworkInterval = networkInterval;
+        mPassive = passive;
+        return changed;
+    }
+
+
+    /* Calculates distance between given location and the last WayPoint */
+    private float getDistanceToLastWayPoint(Location location) {
+        if (mTrack.getSize() == 0) {
+            return Float.MAX_VALUE;
+        }
+        return mTrack.getDistanceToLastWayPoint(location.getLatitude(), location.getLongitude());
+    }
+
+}
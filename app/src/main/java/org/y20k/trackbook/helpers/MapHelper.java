@@ -27,11 +27,11 @@ import org.osmdroid.views.overlay.ItemizedIconOverlay;
 import org.osmdroid.views.overlay.OverlayItem;
 import org.y20k.trackbook.R;
 import org.y20k.trackbook.core.Track;
-import org.y20k.trackbook.core.WayPoint;
+import org.y20k.trackbook.layout.TrackOverlay;
+import org.y20k.trackbook.layout.TrackPathOverlay;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 
 
@@ -81,88 +81,15 @@ public final class MapHelper {
     }
 
 
-    /* Creates icon overlay for track */
-    public static ItemizedIconOverlay createTrackOverlay(final Context context, Track track, boolean trackingActive){
-
-        WayPoint wayPoint;
-        boolean currentPosition;
-        final int trackSize = track.getSize();
-        final List<WayPoint> wayPoints = track.getWayPoints();
-        final ArrayList<OverlayItem> overlayItems = new ArrayList<>();
-
-        for (int i = 0 ; i < track.getSize() ; i++) {
-            // get WayPoint and check if it is current position
-            wayPoint = wayPoints.get(i);
-            currentPosition = i == trackSize - 1;
-
-            // create marker
-            Drawable newMarker;
-
-            // CASE 1: Tracking active and WayPoint is not current position
-            if (trackingActive && !currentPosition) {
-                if (wayPoint.getIsStopOver()) {
-                    // stop over marker
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_grey_24dp);
-                } else {
-                    // default marker for this case
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_red_24dp);
-                }
-            }
-
-            // CASE 2: Tracking active and WayPoint is current position
-            else if (trackingActive && currentPosition) {
-                if (wayPoint.getIsStopOver()) {
-                    // stop over marker
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_dot_grey_24dp);
-                } else {
-                    // default marker for this case
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_dot_red_24dp);
-                }
-            }
-
-            // CASE 3: Tracking not active and WayPoint is not current position
-            else if (!trackingActive && !currentPosition) {
-                if (wayPoint.getIsStopOver()) {
-                    // stop over marker
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_grey_24dp);
-                } else {
-                    // default marker for this case
-                    newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_blue_24dp);
-                }
-            }
-
-            // CASE 4: Tracking not active and WayPoint is current position
-            else {
-                // default marker
-                newMarker = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_blue_24dp);
-            }
-
-            // create overlay item
-            OverlayItem overlayItem = createOverlayItem(context, wayPoint.getLocation());
-            overlayItem.setMarker(newMarker);
-
-            // add marker to list of overlay items
-            overlayItems.add(overlayItem);
-        }
-
-        // return overlay for current position
-        return new ItemizedIconOverlay<>(overlayItems,
-                new ItemizedIconOverlay.OnItemGestureListener<OverlayItem>() {
-                    @Override
-                    public boolean onItemSingleTapUp(final int index, final OverlayItem item) {
-                        // tap on waypoint
-                        Toast.makeText(context, item.getTitle(), Toast.LENGTH_LONG).show();
-                        return true;
-                    }
+    /* Creates icon overlay for starting point, stopovers and current position of track - use TrackOverlay.update for subsequent changes */
+    public static TrackOverlay createTrackOverlay(final Context context, Track track, boolean trackingActive){
+        return new TrackOverlay(context, track, trackingActive);
+    }
 
-                    @Override
-                    public boolean onItemLongPress(final int index, final OverlayItem item) {
-                        // long press on waypoint
-                        Toast.makeText(context, item.getSnippet(), Toast.LENGTH_LONG).show();
-                        return true;
-                    }
 
-                }, context);
+    /* Creates line overlay for track - use TrackPathOverlay.update for subsequent changes */
+    public static TrackPathOverlay createTrackPathOverlay(final Context context, Track track, boolean trackingActive){
+        return new TrackPathOverlay(context, track, trackingActive);
     }
 
 
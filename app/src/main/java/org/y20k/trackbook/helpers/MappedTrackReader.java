@@ -0,0 +1,281 @@
+/**
+ * MappedTrackReader.java
+ * Implements the MappedTrackReader class
+ * A MappedTrackReader gives random access to a binary track file via a memory mapping
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.location.Location;
+
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.WayPoint;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+
+/**
+ * MappedTrackReader class
+ * Header values are read in O(1) - WayPoints are decoded lazily by a Cursor
+ */
+public class MappedTrackReader implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = MappedTrackReader.class.getSimpleName();
+
+
+    /* Offsets of header fields - see TrackCodec for the file layout */
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_SIZE = 8;
+    private static final int OFFSET_TRACK_LENGTH = 12;
+    private static final int OFFSET_DURATION = 16;
+    private static final int OFFSET_STEP_COUNT = 24;
+    private static final int OFFSET_RECORDING_START = 28;
+    private static final int OFFSET_RECORDING_STOP = 36;
+    private static final int OFFSET_TIME_BASE = 44;
+    private static final int OFFSET_ELAPSED_BASE = 52;
+
+
+    /* Main class variables */
+    private final ByteBuffer mBuffer;
+    private final int mSize;
+    private final int mTrackFormatVersion;
+    private final boolean mLongTimeColumns;
+    private final int[] mColumnOffsets;
+
+
+    /* Constructor */
+    private MappedTrackReader(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        mSize = buffer.getInt(OFFSET_SIZE);
+        mTrackFormatVersion = buffer.getInt(OFFSET_VERSION);
+        if (mTrackFormatVersion > CURRENT_TRACK_FORMAT_VERSION) {
+            throw new IOException("Unsupported track format version: " + mTrackFormatVersion);
+        }
+        if (mSize < 0 || buffer.capacity() < TrackCodec.HEADER_SIZE + TrackCodec.getColumnsSize(mTrackFormatVersion, mSize)) {
+            throw new IOException("Truncated track file.");
+        }
+        mLongTimeColumns = TrackCodec.hasLongTimeColumns(mTrackFormatVersion);
+        mColumnOffsets = new int[10];
+        for (int column = 0; column < mColumnOffsets.length; column++) {
+            mColumnOffsets[column] = (int) TrackCodec.getColumnOffset(mTrackFormatVersion, mSize, column);
+        }
+    }
+
+
+    /* Maps given file - returns null if the file is not in binary format */
+    public static MappedTrackReader open(File file) {
+        if (file == null) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            // the mapping stays valid after the channel has been closed
+            FileChannel channel = in.getChannel();
+            if (channel.size() < TrackCodec.HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != TRACK_FILE_MAGIC) {
+                return null;
+            }
+            return new MappedTrackReader(buffer);
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to map track file: " + file.toString());
+            return null;
+        }
+    }
+
+
+    /* Getter size of Track / number of WayPoints */
+    public int getSize() {
+        return mSize;
+    }
+
+
+    /* Getter for length of track in meters */
+    public float getTrackLength() {
+        return mBuffer.getFloat(OFFSET_TRACK_LENGTH);
+    }
+
+
+    /* Getter for duration of track in milliseconds */
+    public long getDuration() {
+        return mBuffer.getLong(OFFSET_DURATION);
+    }
+
+
+    /* Getter for step count of recording */
+    public float getStepCount() {
+        return mBuffer.getFloat(OFFSET_STEP_COUNT);
+    }
+
+
+    /* Getter for start date of recording */
+    public Date getRecordingStart() {
+        return new Date(mBuffer.getLong(OFFSET_RECORDING_START));
+    }
+
+
+    /* Getter for stop date of recording */
+    public Date getRecordingStop() {
+        return new Date(mBuffer.getLong(OFFSET_RECORDING_STOP));
+    }
+
+
+    /* Getter for distance of WayPoint to starting point */
+    public float getDistanceToStartingPoint(int index) {
+        return mBuffer.getFloat(columnOffset(6) + index * 4);
+    }
+
+
+    /* Getter for stopover state of WayPoint */
+    public boolean getIsStopOver(int index) {
+        return (mBuffer.get(columnOffset(9) + index) & WAYPOINT_FLAG_STOP_OVER) != 0;
+    }
+
+
+    /* Getter for flags of WayPoint (WAYPOINT_FLAG_*) */
+    public byte getFlags(int index) {
+        return mBuffer.get(columnOffset(9) + index);
+    }
+
+
+    /* Creates a cursor positioned before the first WayPoint */
+    public Cursor getCursor() {
+        return new Cursor();
+    }
+
+
+    /* Decodes the whole track - column by column, without creating WayPoint objects */
+    public Track readTrack() {
+        Track track = new Track(mTrackFormatVersion, getTrackLength(), getDuration(), getStepCount(), getRecordingStart(), getRecordingStop());
+        track.ensureCapacity(mSize);
+        Cursor cursor = getCursor();
+        while (cursor.moveToNext()) {
+            track.restoreWayPoint(cursor.getLatitude(), cursor.getLongitude(), cursor.getTime(), cursor.getElapsedRealtimeNanos(), cursor.getAccuracy(),
+                    cursor.getAltitude(), cursor.getDistanceToStartingPoint(), cursor.getProviderId(), cursor.getFlags(), cursor.getNumberSatellites());
+        }
+        return track;
+    }
+
+
+    /* Returns start of given column - see TrackCodec for the file layout */
+    private int columnOffset(int column) {
+        return mColumnOffsets[column];
+    }
+
+
+    /**
+     * Inner class: Cursor iterates over the WayPoints of a mapped track file
+     * Latitude, longitude and time are delta-encoded - therefore the cursor only moves forward
+     */
+    public class Cursor {
+
+        private int mIndex = -1;
+        private int mLatitude = 0;
+        private int mLongitude = 0;
+        private long mTime = mBuffer.getLong(OFFSET_TIME_BASE);
+        private long mElapsedMillis = mBuffer.getLong(OFFSET_ELAPSED_BASE) / 1000000L;
+
+        /* Moves to next WayPoint - returns false if the end of the track has been reached */
+        public boolean moveToNext() {
+            if (mIndex + 1 >= mSize) {
+                return false;
+            }
+            mIndex++;
+            mLatitude += mBuffer.getInt(columnOffset(0) + mIndex * 4);
+            mLongitude += mBuffer.getInt(columnOffset(1) + mIndex * 4);
+            if (mLongTimeColumns) {
+                mTime += mBuffer.getLong(columnOffset(2) + mIndex * 8);
+                mElapsedMillis += mBuffer.getLong(columnOffset(3) + mIndex * 8);
+            } else {
+                mTime += mBuffer.getInt(columnOffset(2) + mIndex * 4);
+                mElapsedMillis += mBuffer.getInt(columnOffset(3) + mIndex * 4);
+            }
+            return true;
+        }
+
+        public int getPosition() {
+            return mIndex;
+        }
+
+        public double getLatitude() {
+            return TrackCodec.decodeCoordinate(mLatitude);
+        }
+
+        public double getLongitude() {
+            return TrackCodec.decodeCoordinate(mLongitude);
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public long getElapsedRealtimeNanos() {
+            return mElapsedMillis * 1000000L;
+        }
+
+        public float getAccuracy() {
+            return mBuffer.getFloat(columnOffset(4) + mIndex * 4);
+        }
+
+        public float getAltitude() {
+            return mBuffer.getFloat(columnOffset(5) + mIndex * 4);
+        }
+
+        public float getDistanceToStartingPoint() {
+            return MappedTrackReader.this.getDistanceToStartingPoint(mIndex);
+        }
+
+        public boolean getIsStopOver() {
+            return MappedTrackReader.this.getIsStopOver(mIndex);
+        }
+
+        public byte getNumberSatellites() {
+            return mBuffer.get(columnOffset(7) + mIndex);
+        }
+
+        public byte getProviderId() {
+            return mBuffer.get(columnOffset(8) + mIndex);
+        }
+
+        public byte getFlags() {
+            return mBuffer.get(columnOffset(9) + mIndex);
+        }
+
+        /* Materializes the current WayPoint */
+        public WayPoint getWayPoint() {
+            Location location = new Location(LocationHelper.getProviderName(getProviderId()));
+            location.setLatitude(getLatitude());
+            location.setLongitude(getLongitude());
+            location.setTime(mTime);
+            location.setElapsedRealtimeNanos(getElapsedRealtimeNanos());
+            if ((getFlags() & WAYPOINT_FLAG_HAS_ACCURACY) != 0) {
+                location.setAccuracy(getAccuracy());
+            }
+            if ((getFlags() & WAYPOINT_FLAG_HAS_ALTITUDE) != 0) {
+                location.setAltitude(getAltitude());
+            }
+            return new WayPoint(location, getIsStopOver(), getDistanceToStartingPoint(), getNumberSatellites());
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
@@ -18,28 +18,38 @@ package org.y20k.trackbook.helpers;
 
 import android.content.Context;
 import android.os.Environment;
+import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v4.os.EnvironmentCompat;
 import android.widget.Toast;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
 import org.y20k.trackbook.R;
 import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.TrackBundle;
+import org.y20k.trackbook.core.WayPoint;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
 
 
 /**
@@ -50,10 +60,17 @@ public class StorageHelper implements TrackbookKeys {
     /* Define log tag */
     private static final String LOG_TAG = StorageHelper.class.getSimpleName();
 
+    /* Fewest bytes a WayPoint takes in the legacy JSON format - used to size the track columns before parsing */
+    private static final int MINIMUM_JSON_BYTES_PER_WAYPOINT = 256;
+
     /* Main class variables */
     private final Context mContext;
+    private final TrackRepository mRepository;
     private File mFolder;
     private final File mTempFile;
+    private final File mJournalFile;
+    private final TrackCatalog mCatalog;
+    private final int mCompressionLevel;
 
 
     /* Constructor */
@@ -61,33 +78,43 @@ public class StorageHelper implements TrackbookKeys {
         // store activity
         mContext = context;
 
-        // get "tracks" folder
-        mFolder  = mContext.getExternalFilesDir(TRACKS_DIRECTORY_NAME);
+        // get "tracks" folder - from the process-wide repository, which caches the list of track files
+        mRepository = TrackRepository.getInstance(context);
+        mFolder = mRepository.getFolder();
         // mFolder = getTracksDirectory();
 
-        // create "tracks" folder if necessary
-        if (mFolder != null && !mFolder.exists()) {
-            LogHelper.v(LOG_TAG, "Creating new folder: " + mFolder.toString());
-            mFolder.mkdirs();
-        }
-
         // create temp file object
         mTempFile = new File(mFolder.toString() + "/" + FILE_NAME_TEMP + FILE_TYPE_TRACKBOOK_EXTENSION);
 
-        // delete old track - exclude temp file
-        deleteOldTracks(false);
+        // create journal file object - the journal of the current recording replaces the temp file
+        mJournalFile = new File(mFolder.toString() + "/" + FILE_NAME_TEMP + FILE_TYPE_JOURNAL_EXTENSION);
+
+        // create catalog object - summaries of all track files
+        mCatalog = new TrackCatalog(mFolder);
+
+        // get compression level for new track files - plain binary files are the default
+        int compressionLevel = PreferenceManager.getDefaultSharedPreferences(context).getInt(PREFS_TRACK_COMPRESSION_LEVEL, TRACK_COMPRESSION_OFF);
+        mCompressionLevel = Math.max(TRACK_COMPRESSION_OFF, Math.min(compressionLevel, Deflater.BEST_COMPRESSION));
     }
 
 
-    /* Checks if a temp file exits */
+    /* Checks if a temp file or a journal exits */
     public boolean tempFileExists() {
-        return mTempFile.exists();
+        return mJournalFile.exists() || mTempFile.exists();
     }
 
 
-    /* Deletes temp file - if it exits */
+    /* Deletes temp file and journal - if they exit */
     public boolean deleteTempFile() {
-        return mTempFile.exists() && mTempFile.delete();
+        boolean journalDeleted = mJournalFile.exists() && mJournalFile.delete();
+        boolean tempFileDeleted = mTempFile.exists() && mTempFile.delete();
+        return journalDeleted || tempFileDeleted;
+    }
+
+
+    /* Creates a new journal for a recording - replaces an existing journal */
+    public TrackJournal openJournal(Date recordingStart) {
+        return new TrackJournal(mJournalFile, recordingStart);
     }
 
 
@@ -107,30 +134,28 @@ public class StorageHelper implements TrackbookKeys {
                 fileName = FILE_NAME_TEMP + FILE_TYPE_TRACKBOOK_EXTENSION;
             } else {
                 // case: regular file
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
-                fileName = dateFormat.format(recordingStart) + FILE_TYPE_TRACKBOOK_EXTENSION;
+                fileName = createTrackFileName(recordingStart);
             }
             File file = new File(mFolder.toString() + "/" +  fileName);
 
-            // convert track to JSON
-            GsonBuilder gsonBuilder = new GsonBuilder();
-            gsonBuilder.setDateFormat("M/d/yy hh:mm a");
-            Gson gson = gsonBuilder.create();
-            String json = gson.toJson(track);
-
-            // write track
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+            // write track in binary format
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
                 LogHelper.v(LOG_TAG, "Saving track to external storage: " + file.toString());
-                bw.write(json);
+                writeTrackToStream(track, out);
             } catch (IOException e) {
                 LogHelper.e(LOG_TAG, "Unable to saving track to external storage (IOException): " + file.toString());
                 return false;
             }
 
-            // if write was successful delete old track files - only if not a temp file
+            // add summary of regular files to catalog
             if (fileType != FILE_TEMP_TRACK) {
-                // include temp file if it exists
-                deleteOldTracks(true);
+                mRepository.invalidate();
+                updateCatalog(new TrackBundle(file, track), null);
+            }
+
+            // if write was successful delete temp file - not for an imported track, which must not discard the current recording
+            if (fileType == FILE_MOST_CURRENT_TRACK) {
+                deleteTempFile();
             }
 
             return true;
@@ -143,6 +168,12 @@ public class StorageHelper implements TrackbookKeys {
     }
 
 
+    /* Checks if a track file for a recording with the start of given track exists */
+    public boolean trackFileExists(Track track) {
+        return mFolder != null && new File(mFolder, createTrackFileName(track.getRecordingStart())).exists();
+    }
+
+
     /* Loads given file into memory */
     public Track loadTrack(int fileType) {
 
@@ -150,6 +181,10 @@ public class StorageHelper implements TrackbookKeys {
         File trackFile;
         switch (fileType) {
             case FILE_TEMP_TRACK:
+                if (mJournalFile.exists()) {
+                    // rebuild track from journal
+                    return TrackJournal.replay(mJournalFile);
+                }
                 trackFile = getTempFile();
                 break;
             case FILE_MOST_CURRENT_TRACK:
@@ -182,12 +217,110 @@ public class StorageHelper implements TrackbookKeys {
     }
 
 
-    /* Gets a list of .trackbook files - excluding the temp file */
+    /* Gets a list of .trackbook files - excluding the temp file - newest first */
     public File[] getListOfTrackbookFiles() {
-        // TODO HANDLE CASE: EMPTY FILE LIST
+        return mRepository.getTrackFiles();
+    }
+
+
+    /* Replaces given track file with given track - via temp file, the old file stays intact if writing fails */
+    public boolean replaceTrack(File file, Track track) {
+        File tempFile = new File(file.getPath() + FILE_TYPE_TEMP_EXTENSION);
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            BufferedOutputStream out = new BufferedOutputStream(outputStream);
+            writeTrackToStream(track, out);
+            out.flush();
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to write track (IOException): " + tempFile.toString());
+            tempFile.delete();
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            LogHelper.e(LOG_TAG, "Unable to replace track file: " + file.toString());
+            tempFile.delete();
+            return false;
+        }
+
+        mRepository.invalidate();
+        updateCatalog(new TrackBundle(file, track), null);
+        return true;
+    }
 
-        // get files and sort them
-        return sortFiles(mFolder.listFiles());
+
+    /* Checks if given track file holds simplified geometry - without decoding the whole track - an empty track counts as simplified */
+    public boolean isSimplifiedTrack(File file) {
+        // plain binary files are mapped
+        MappedTrackReader trackReader = MappedTrackReader.open(file);
+        if (trackReader != null) {
+            return trackReader.getSize() == 0 || (trackReader.getFlags(0) & WAYPOINT_FLAG_SIMPLIFIED) != 0;
+        }
+
+        // compressed files: blocks before the flags column are skipped, not inflated
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            in.mark(4);
+            boolean compressedFormat = new DataInputStream(in).readInt() == TRACK_FILE_COMPRESSED_MAGIC;
+            in.reset();
+            return compressedFormat && (TrackCodec.readFirstFlags(new DataInputStream(TrackCompression.openTrack(in))) & WAYPOINT_FLAG_SIMPLIFIED) != 0;
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to read file from external storage: " + file.toString());
+            return false;
+        }
+    }
+
+
+    /* Deletes given track file and removes it from the catalog */
+    public boolean removeTrack(File file) {
+        if (!file.delete()) {
+            LogHelper.e(LOG_TAG, "Unable to delete track file: " + file.toString());
+            return false;
+        }
+        mRepository.invalidate();
+        updateCatalog(null, file);
+        return true;
+    }
+
+
+    /* Gets summaries of all readable track files from the catalog - only tracks missing in the catalog are loaded, so do not call on the main thread */
+    public List<TrackBundle> getListOfTrackBundles() {
+        File[] files = getListOfTrackbookFiles();
+
+        synchronized (TrackCatalog.LOCK) {
+            // map catalog rows to file names
+            Map<String, TrackBundle> rows = new HashMap<>();
+            for (TrackBundle row : mCatalog.read()) {
+                rows.put(row.getTrackFile().getName(), row);
+            }
+
+            // rows of unknown and changed files are rebuilt - unreadable files keep a row, but are not listed
+            List<TrackBundle> catalogRows = new ArrayList<>(files.length);
+            List<TrackBundle> trackBundles = new ArrayList<>(files.length);
+            boolean catalogChanged = false;
+            for (File file : files) {
+                TrackBundle trackBundle = rows.remove(file.getName());
+                if (trackBundle == null || trackBundle.getFileSize() != file.length()) {
+                    LogHelper.v(LOG_TAG, "Adding track to catalog: " + file.toString());
+                    Track track = readTrackFromFile(file);
+                    if (track != null) {
+                        trackBundle = new TrackBundle(file, track);
+                    } else {
+                        LogHelper.w(LOG_TAG, "Unable to read track file - it is not listed: " + file.toString());
+                        trackBundle = new TrackBundle(file, file.length());
+                    }
+                    catalogChanged = true;
+                }
+                catalogRows.add(trackBundle);
+                if (trackBundle.isReadable()) {
+                    trackBundles.add(trackBundle);
+                }
+            }
+
+            // rows left over belong to files that are gone
+            if (catalogChanged || !rows.isEmpty()) {
+                mCatalog.write(catalogRows);
+            }
+            return trackBundles;
+        }
     }
 
 
@@ -208,8 +341,8 @@ public class StorageHelper implements TrackbookKeys {
 //    }
 
 
-    // loads file and parses it into a track
-    private Track readTrackFromFile(File file) {
+    /* Loads file and parses it into a track - any format, no context needed - returns null if the file cannot be read */
+    public static Track readTrackFromFile(File file) {
 
         // check if given file was null
         if (file == null) {
@@ -217,44 +350,129 @@ public class StorageHelper implements TrackbookKeys {
             return null;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
             LogHelper.v(LOG_TAG, "Loading track from external storage: " + file.toString());
 
-            String line;
-            StringBuilder sb = new StringBuilder("");
-
-            // read until last line reached
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-                sb.append("\n");
+            // peek at the first bytes to determine the file format
+            in.mark(4);
+            DataInputStream dataIn = new DataInputStream(in);
+            int magic = dataIn.readInt();
+            in.reset();
+
+            if (magic == TRACK_FILE_MAGIC) {
+                // get track from binary format
+                return TrackCodec.readTrack(dataIn);
+            } else if (magic == TRACK_FILE_COMPRESSED_MAGIC) {
+                // get track from compressed binary format - the header names the codec
+                return TrackCompression.readTrack(in);
+            } else {
+                // get track from JSON (legacy format) - parsed as a stream, without holding the whole file in memory
+                return readTrackFromJson(new JsonReader(new InputStreamReader(in)), file.length());
             }
 
-            // TODO implement a format version check before handing the file to GSON
-
-            // get track from JSON
-            GsonBuilder gsonBuilder = new GsonBuilder();
-            gsonBuilder.setDateFormat("M/d/yy hh:mm a");
-            Gson gson = gsonBuilder.create();
-            return gson.fromJson(sb.toString(), Track.class);
-
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             LogHelper.e(LOG_TAG, "Unable to read file from external storage: " + file.toString());
             return null;
         }
     }
 
 
+    /* Writes track in binary format - compressed, if a compression level is set */
+    private void writeTrackToStream(Track track, BufferedOutputStream out) throws IOException {
+        if (mCompressionLevel == TRACK_COMPRESSION_OFF) {
+            TrackCodec.writeTrack(track, new DataOutputStream(out));
+        } else {
+            TrackCompression.writeTrack(track, out, mCompressionLevel);
+        }
+    }
+
+
+    /* Parses a track from a JSON stream - WayPoints are handed to GSON one at a time and go straight into the track columns */
+    private static Track readTrackFromJson(JsonReader reader, long fileLength) throws IOException {
+        Gson gson = createGson();
+
+        // the other values follow the WayPoints - they are set once the whole object has been read
+        Track track = new Track(CURRENT_TRACK_FORMAT_VERSION, 0f, 0, 0f, new Date(0), null);
+
+        // size columns for the most WayPoints the file can hold - growing them would keep copies of the columns around
+        track.ensureCapacity((int) Math.min(fileLength / MINIMUM_JSON_BYTES_PER_WAYPOINT, Integer.MAX_VALUE));
+        int trackFormatVersion = CURRENT_TRACK_FORMAT_VERSION;
+        float trackLength = 0f;
+        long duration = 0;
+        float stepCount = 0f;
+        Date recordingStart = null;
+        Date recordingStop = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "mTrackFormatVersion":
+                    trackFormatVersion = reader.nextInt();
+                    break;
+                case "mWayPoints":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        track.restoreWayPoint(gson.<WayPoint>fromJson(reader, WayPoint.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "mTrackLength":
+                    trackLength = (float) reader.nextDouble();
+                    break;
+                case "mDuration":
+                    duration = reader.nextLong();
+                    break;
+                case "mStepCount":
+                    stepCount = (float) reader.nextDouble();
+                    break;
+                case "mRecordingStart":
+                    recordingStart = gson.fromJson(reader, Date.class);
+                    break;
+                case "mRecordingStop":
+                    recordingStop = gson.fromJson(reader, Date.class);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        // fallback for incomplete files
+        if (recordingStart == null) {
+            recordingStart = new Date(0);
+        }
+        if (recordingStop == null) {
+            recordingStop = recordingStart;
+        }
+
+        track.restoreHeader(trackFormatVersion, trackLength, duration, stepCount, recordingStart, recordingStop);
+        return track;
+    }
+
+
+    /* Creates a GSON instance configured for the .trackbook format */
+    private static Gson createGson() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.setDateFormat("M/d/yy hh:mm a");
+        return gsonBuilder.create();
+    }
+
+
+    /* Creates the name of the track file for a recording started at given date */
+    private static String createTrackFileName(Date recordingStart) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+        return dateFormat.format(recordingStart) + FILE_TYPE_TRACKBOOK_EXTENSION;
+    }
+
+
     /* Gets most current track from directory */
     private File getMostCurrentTrack() {
 
-        if (mFolder != null && mFolder.isDirectory()) {
-            // get files and sort them
-            File[] files = mFolder.listFiles();
-            files = sortFiles(files);
-            if (files.length > 0 && files[0].getName().endsWith(FILE_TYPE_TRACKBOOK_EXTENSION) && !files[0].equals(mTempFile)){
-                // return latest track
-                return files[0];
-            }
+        // get latest track from cached list of track files
+        File file = mRepository.getMostCurrentTrackFile();
+        if (file != null) {
+            return file;
         }
         LogHelper.e(LOG_TAG, "Unable to get files from given folder. Folder is probably empty.");
         return null;
@@ -271,72 +489,30 @@ public class StorageHelper implements TrackbookKeys {
     }
 
 
-    /* Gets the last track from directory */
-    private void deleteOldTracks(boolean includeTempFile) {
-
-        if (mFolder != null && mFolder.isDirectory()) {
-            LogHelper.v(LOG_TAG, "Deleting older recordings.");
-
-            // get files and sort them
-            File[] files = mFolder.listFiles();
-            files = sortFiles(files);
-
-            // store length of array
-            int numberOfFiles = files.length;
-
-            // keep the latest ten (mMaxTrackFiles) track files
-            int index = MAXIMUM_TRACK_FILES;
-            // iterate through array
-            while (index < numberOfFiles && files[index].getName().endsWith(FILE_TYPE_TRACKBOOK_EXTENSION) && !files[index].equals(mTempFile)) {
-                files[index].delete();
-                index++;
+    /* Adds, replaces or removes a row of the catalog - rows stay sorted like the track files */
+    private void updateCatalog(@Nullable TrackBundle addedTrackBundle, @Nullable File removedFile) {
+        synchronized (TrackCatalog.LOCK) {
+            List<TrackBundle> rows = mCatalog.read();
+            boolean catalogChanged = false;
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                File file = rows.get(i).getTrackFile();
+                if (file.equals(removedFile) || (addedTrackBundle != null && file.equals(addedTrackBundle.getTrackFile()))) {
+                    rows.remove(i);
+                    catalogChanged = true;
+                }
             }
-        }
-
-        // delete temp file if it exists
-        if (includeTempFile && mTempFile.exists()) {
-            mTempFile.delete();
-        }
-
-    }
-
-
-    /* Sorts array of files in a way that the newest files are at the top and non-.trackbook files are at the bottom */
-    private File[] sortFiles(File[] files) {
-        // sort array
-        LogHelper.v(LOG_TAG, "Sorting files.");
-        Arrays.sort(files, new Comparator<File>() {
-            @Override
-            public int compare(File file1, File file2) {
-
-                // discard temp file and files not ending with ".trackbook"
-                boolean file1IsTrack = file1.getName().endsWith(FILE_TYPE_TRACKBOOK_EXTENSION) && !file1.equals(mTempFile);
-                boolean file2IsTrack = file2.getName().endsWith(FILE_TYPE_TRACKBOOK_EXTENSION) && !file2.equals(mTempFile);
-
-                // note: "greater" means higher index in array
-                if (!file1IsTrack && file2IsTrack) {
-                    // file1 is not a track, file1 is greater
-                    return 1;
-                } else if (!file2IsTrack && file1IsTrack) {
-                    // file2 is not a track, file2 is greater
-                    return -1;
-                } else {
-                    // "compareTo" compares abstract path names lexicographically | 0 == equal | -1 == file2 less than file1 | 1 == file2 greater than file1
-                    return file2.compareTo(file1);
+            if (addedTrackBundle != null) {
+                int position = 0;
+                while (position < rows.size() && rows.get(position).getTrackFile().compareTo(addedTrackBundle.getTrackFile()) > 0) {
+                    position++;
                 }
-
+                rows.add(position, addedTrackBundle);
+                catalogChanged = true;
             }
-        });
-
-        // log sorting result // TODO comment out for release
-//        String fileList = "";
-//        for (File file : files) {
-//            fileList = fileList + file.getName() + "\n";
-//        }
-//        LogHelper.v(LOG_TAG, "+++ List of files +++\n" + fileList);
-
-        // hand back sorted array of files
-        return files;
+            if (catalogChanged) {
+                mCatalog.write(rows);
+            }
+        }
     }
 
 
@@ -0,0 +1,177 @@
+/**
+ * TrackCache.java
+ * Implements the TrackCache class
+ * A TrackCache keeps recently used tracks in memory - bounded by the memory their WayPoints take
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.util.LruCache;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * TrackCache class
+ * Tracks are keyed by file and modification time, so a changed file is never served from the cache.
+ * Tracks handed out by the cache are shared - they must not be modified.
+ */
+public final class TrackCache {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackCache.class.getSimpleName();
+
+
+    /* Memory taken by one WayPoint in the columns of a Track */
+    private static final int BYTES_PER_WAYPOINT = 47;
+
+    /* Share of the heap available to the cache */
+    private static final int HEAP_FRACTION = 8;
+
+
+    /* Singleton instance */
+    private static TrackCache sInstance;
+
+
+    /* Main class variables */
+    private final LruCache<String, Track> mTracks;
+    private final Map<String, Future<Track>> mPendingLoads;
+    private final ExecutorService mPrewarmExecutor;
+
+
+    /* Returns the process-wide instance - creates it on first use */
+    public static synchronized TrackCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new TrackCache((int) Math.min(Runtime.getRuntime().maxMemory() / HEAP_FRACTION, Integer.MAX_VALUE));
+        }
+        return sInstance;
+    }
+
+
+    /* Constructor */
+    private TrackCache(int maxBytes) {
+        mTracks = new LruCache<String, Track>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Track track) {
+                return Math.max(track.getSize(), 1) * BYTES_PER_WAYPOINT;
+            }
+        };
+        mPendingLoads = new HashMap<>();
+        mPrewarmExecutor = Executors.newSingleThreadExecutor();
+    }
+
+
+    /* Returns track stored in given file - from cache, from a running pre-warm load or from storage */
+    public Track getTrack(StorageHelper storageHelper, File file) {
+        String key = createKey(file);
+        Future<Track> pendingLoad;
+        synchronized (this) {
+            Track track = mTracks.get(key);
+            if (track != null) {
+                return track;
+            }
+            pendingLoad = mPendingLoads.get(key);
+        }
+
+        // wait for pre-warm load of the same file
+        if (pendingLoad != null) {
+            try {
+                Track track = pendingLoad.get();
+                if (track != null) {
+                    return track;
+                }
+            } catch (InterruptedException e) {
+                // caller is no longer interested - keep interrupt for the caller's executor
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                LogHelper.e(LOG_TAG, "Pre-warming failed: " + file.toString());
+            }
+        }
+        return load(storageHelper, file, key);
+    }
+
+
+    /* Returns track stored in given file if it is in the cache - or null */
+    public synchronized Track peekTrack(File file) {
+        return mTracks.get(createKey(file));
+    }
+
+
+    /* Loads given files in the background - files already in the cache are skipped */
+    public void prewarm(final StorageHelper storageHelper, File... files) {
+        for (final File file : files) {
+            if (file == null) {
+                continue;
+            }
+            final String key = createKey(file);
+            synchronized (this) {
+                if (mTracks.get(key) != null || mPendingLoads.containsKey(key)) {
+                    continue;
+                }
+                mPendingLoads.put(key, mPrewarmExecutor.submit(new Callable<Track>() {
+                    @Override
+                    public Track call() {
+                        LogHelper.v(LOG_TAG, "Pre-warming track: " + file.toString());
+                        try {
+                            return load(storageHelper, file, key);
+                        } finally {
+                            synchronized (TrackCache.this) {
+                                mPendingLoads.remove(key);
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+    }
+
+
+    /* Reads track from storage and puts it into the cache */
+    private Track load(StorageHelper storageHelper, File file, String key) {
+        // map binary files - fall back to StorageHelper for the legacy format
+        Track track;
+        MappedTrackReader trackReader = MappedTrackReader.open(file);
+        if (trackReader != null) {
+            track = trackReader.readTrack();
+        } else if (Thread.currentThread().isInterrupted()) {
+            // mapping failed because the load has been cancelled
+            return null;
+        } else {
+            track = storageHelper.loadTrack(file);
+        }
+
+        if (track != null) {
+            synchronized (this) {
+                mTracks.put(key, track);
+            }
+        }
+        return track;
+    }
+
+
+    /* Creates cache key for given file */
+    private static String createKey(File file) {
+        return file.getPath() + "@" + file.lastModified();
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * TrackCatalog.java
+ * Implements the TrackCatalog class
+ * A TrackCatalog stores the summaries of all track files in one small index file
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.TrackBundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * TrackCatalog class
+ * File layout: a header (magic, version, row count) followed by one fixed-size row per track file.
+ * The catalog is always rewritten as a whole - to a temp file, which then replaces the catalog.
+ *
+ * Row layout:
+ *   file name        40 bytes, US-ASCII, zero padded
+ *   file size         8 bytes
+ *   recording start   8 bytes
+ *   recording stop    8 bytes
+ *   duration          8 bytes
+ *   track length      4 bytes
+ *   step count        4 bytes
+ *   WayPoint count    4 bytes
+ *   bounding box     16 bytes - north, east, south, west as fixed point ints (see TrackCodec)
+ */
+public class TrackCatalog implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackCatalog.class.getSimpleName();
+
+
+    /* Layout of catalog file */
+    public static final int HEADER_SIZE = 12; // bytes
+    public static final int ROW_SIZE = 100; // bytes
+    private static final int FILE_NAME_LENGTH = 40; // bytes
+    private static final int CATALOG_FILE_MAGIC = 0x54524B49; // "TRKI"
+    private static final int CATALOG_FORMAT_VERSION = 1;
+
+
+    /* Catalog files may be accessed from several StorageHelper instances and threads */
+    public static final Object LOCK = new Object();
+
+
+    /* Main class variables */
+    private final File mFolder;
+    private final File mCatalogFile;
+
+
+    /* Constructor */
+    public TrackCatalog(File folder) {
+        mFolder = folder;
+        mCatalogFile = new File(folder, FILE_NAME_CATALOG + FILE_TYPE_INDEX_EXTENSION);
+    }
+
+
+    /* Reads all rows - returns an empty list if the catalog is missing or damaged */
+    public List<TrackBundle> read() {
+        List<TrackBundle> trackBundles = new ArrayList<>();
+        if (!mCatalogFile.exists()) {
+            return trackBundles;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mCatalogFile)))) {
+            if (in.readInt() != CATALOG_FILE_MAGIC || in.readInt() != CATALOG_FORMAT_VERSION) {
+                LogHelper.w(LOG_TAG, "Unknown catalog format: " + mCatalogFile.toString());
+                return trackBundles;
+            }
+            int count = in.readInt();
+            if (count < 0 || mCatalogFile.length() != HEADER_SIZE + (long) count * ROW_SIZE) {
+                LogHelper.w(LOG_TAG, "Damaged catalog: " + mCatalogFile.toString());
+                return trackBundles;
+            }
+
+            byte[] name = new byte[FILE_NAME_LENGTH];
+            for (int i = 0; i < count; i++) {
+                in.readFully(name);
+                int nameLength = 0;
+                while (nameLength < FILE_NAME_LENGTH && name[nameLength] != 0) {
+                    nameLength++;
+                }
+                File file = new File(mFolder, new String(name, 0, nameLength, StandardCharsets.US_ASCII));
+                long fileSize = in.readLong();
+                Date recordingStart = new Date(in.readLong());
+                Date recordingStop = new Date(in.readLong());
+                long duration = in.readLong();
+                float trackLength = in.readFloat();
+                float stepCount = in.readFloat();
+                int size = in.readInt();
+                double north = TrackCodec.decodeCoordinate(in.readInt());
+                double east = TrackCodec.decodeCoordinate(in.readInt());
+                double south = TrackCodec.decodeCoordinate(in.readInt());
+                double west = TrackCodec.decodeCoordinate(in.readInt());
+                trackBundles.add(new TrackBundle(file, fileSize, recordingStart, recordingStop, duration, trackLength, stepCount, size, north, east, south, west));
+            }
+
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to read catalog: " + mCatalogFile.toString());
+            trackBundles.clear();
+        }
+        return trackBundles;
+    }
+
+
+    /* Replaces the catalog with given rows - rows with file names that do not fit are left out */
+    public boolean write(List<TrackBundle> trackBundles) {
+        List<TrackBundle> rows = new ArrayList<>(trackBundles.size());
+        for (TrackBundle trackBundle : trackBundles) {
+            if (trackBundle.getTrackFile().getName().length() <= FILE_NAME_LENGTH) {
+                rows.add(trackBundle);
+            }
+        }
+
+        File tempFile = new File(mCatalogFile.getPath() + FILE_TYPE_TEMP_EXTENSION);
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            out.writeInt(CATALOG_FILE_MAGIC);
+            out.writeInt(CATALOG_FORMAT_VERSION);
+            out.writeInt(rows.size());
+
+            byte[] name = new byte[FILE_NAME_LENGTH];
+            for (TrackBundle row : rows) {
+                byte[] fileName = row.getTrackFile().getName().getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(fileName, 0, name, 0, fileName.length);
+                Arrays.fill(name, fileName.length, FILE_NAME_LENGTH, (byte) 0);
+                out.write(name);
+                out.writeLong(row.getFileSize());
+                out.writeLong(row.getRecordingStart().getTime());
+                out.writeLong(row.getRecordingStop().getTime());
+                out.writeLong(row.getDuration());
+                out.writeFloat(row.getTrackLength());
+                out.writeFloat(row.getStepCount());
+                out.writeInt(row.getSize());
+                out.writeInt(TrackCodec.encodeCoordinate(row.getNorth()));
+                out.writeInt(TrackCodec.encodeCoordinate(row.getEast()));
+                out.writeInt(TrackCodec.encodeCoordinate(row.getSouth()));
+                out.writeInt(TrackCodec.encodeCoordinate(row.getWest()));
+            }
+            out.flush();
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to write catalog: " + tempFile.toString());
+            tempFile.delete();
+            return false;
+        }
+
+        // replace catalog in one step
+        if (!tempFile.renameTo(mCatalogFile)) {
+            LogHelper.e(LOG_TAG, "Unable to replace catalog: " + mCatalogFile.toString());
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * TrackCodec.java
+ * Implements the TrackCodec class
+ * A TrackCodec reads and writes tracks in Trackbook's compact binary file format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+
+/**
+ * TrackCodec class
+ *
+ * File layout (big endian, as written by DataOutput):
+ * HEADER  magic, format version, number of WayPoints, track length, duration, step count,
+ *         recording start, recording stop, time base, elapsed realtime base
+ * COLUMNS one column per field, each holding one entry per WayPoint:
+ *         latitude and longitude (int, 1e-7 degrees, delta to previous WayPoint),
+ *         time and elapsed realtime (long, milliseconds, delta to previous WayPoint),
+ *         accuracy, altitude, distance to starting point (float),
+ *         number of satellites, provider id (see LocationHelper), flags (WAYPOINT_FLAG_*) (byte)
+ * Version 2 files have int time and elapsed realtime columns - gaps of more than 24 days did not fit
+ */
+public final class TrackCodec implements TrackbookKeys {
+
+    /* Layout of binary track files */
+    public static final int HEADER_SIZE = 60; // bytes
+    public static final int BYTES_PER_WAYPOINT = 39; // sum of all column widths
+    private static final int INT_TIME_COLUMNS_VERSION = 2; // last version with int time and elapsed realtime columns
+    private static final int[] COLUMN_WIDTHS = {4, 4, 8, 8, 4, 4, 4, 1, 1, 1}; // bytes
+    private static final int[] INT_TIME_COLUMN_WIDTHS = {4, 4, 4, 4, 4, 4, 4, 1, 1, 1}; // bytes
+    public static final double COORDINATE_FACTOR = 1E7; // degrees to fixed point int
+
+
+    /* Writes given track in binary format */
+    public static void writeTrack(Track track, DataOutput out) throws IOException {
+        int size = track.getSize();
+        long timeBase = size > 0 ? track.getTime(0) : 0;
+        long elapsedBase = size > 0 ? track.getElapsedRealtimeNanos(0) : 0;
+
+        // write header
+        out.writeInt(TRACK_FILE_MAGIC);
+        out.writeInt(CURRENT_TRACK_FORMAT_VERSION);
+        out.writeInt(size);
+        out.writeFloat(track.getTrackLength());
+        out.writeLong(track.getDuration());
+        out.writeFloat(track.getStepCount());
+        out.writeLong(track.getRecordingStart().getTime());
+        out.writeLong(track.getRecordingStop().getTime());
+        out.writeLong(timeBase);
+        out.writeLong(elapsedBase);
+
+        // write latitude and longitude columns
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            int latitude = encodeCoordinate(track.getLatitude(i));
+            out.writeInt(latitude - previous);
+            previous = latitude;
+        }
+        previous = 0;
+        for (int i = 0; i < size; i++) {
+            int longitude = encodeCoordinate(track.getLongitude(i));
+            out.writeInt(longitude - previous);
+            previous = longitude;
+        }
+
+        // write time and elapsed realtime columns
+        long previousTime = timeBase;
+        for (int i = 0; i < size; i++) {
+            long time = track.getTime(i);
+            out.writeLong(time - previousTime);
+            previousTime = time;
+        }
+        long previousElapsed = elapsedBase / 1000000L;
+        for (int i = 0; i < size; i++) {
+            long elapsed = track.getElapsedRealtimeNanos(i) / 1000000L;
+            out.writeLong(elapsed - previousElapsed);
+            previousElapsed = elapsed;
+        }
+
+        // write accuracy, altitude and distance columns
+        for (int i = 0; i < size; i++) {
+            out.writeFloat(track.getAccuracy(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeFloat(track.getAltitude(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeFloat(track.getDistanceToStartingPoint(i));
+        }
+
+        // write satellites, provider and flags columns
+        for (int i = 0; i < size; i++) {
+            out.writeByte(track.getNumberSatellites(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeByte(track.getProviderId(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeByte(track.getFlags(i));
+        }
+    }
+
+
+    /* Reads a track in binary format - including the magic number */
+    public static Track readTrack(DataInput in) throws IOException {
+
+        // read and check header
+        if (in.readInt() != TRACK_FILE_MAGIC) {
+            throw new IOException("Not a binary track file.");
+        }
+        int trackFormatVersion = in.readInt();
+        if (trackFormatVersion > CURRENT_TRACK_FORMAT_VERSION) {
+            throw new IOException("Unsupported track format version: " + trackFormatVersion);
+        }
+        int size = in.readInt();
+        float trackLength = in.readFloat();
+        long duration = in.readLong();
+        float stepCount = in.readFloat();
+        Date recordingStart = new Date(in.readLong());
+        Date recordingStop = new Date(in.readLong());
+        long timeBase = in.readLong();
+        long elapsedBase = in.readLong();
+
+        // read columns
+        int[] latitudes = readIntColumn(in, size);
+        int[] longitudes = readIntColumn(in, size);
+        boolean longTimeColumns = hasLongTimeColumns(trackFormatVersion);
+        long[] timeDeltas = longTimeColumns ? readLongColumn(in, size) : readIntColumnAsLong(in, size);
+        long[] elapsedDeltas = longTimeColumns ? readLongColumn(in, size) : readIntColumnAsLong(in, size);
+        float[] accuracies = readFloatColumn(in, size);
+        float[] altitudes = readFloatColumn(in, size);
+        float[] distances = readFloatColumn(in, size);
+        byte[] satellites = readByteColumn(in, size);
+        byte[] providers = readByteColumn(in, size);
+        byte[] flags = readByteColumn(in, size);
+
+        // fill track columns
+        Track track = new Track(trackFormatVersion, trackLength, duration, stepCount, recordingStart, recordingStop);
+        track.ensureCapacity(size);
+        int latitude = 0;
+        int longitude = 0;
+        long time = timeBase;
+        long elapsed = elapsedBase / 1000000L;
+        for (int i = 0; i < size; i++) {
+            latitude += latitudes[i];
+            longitude += longitudes[i];
+            time += timeDeltas[i];
+            elapsed += elapsedDeltas[i];
+            track.restoreWayPoint(decodeCoordinate(latitude), decodeCoordinate(longitude), time, elapsed * 1000000L,
+                    accuracies[i], altitudes[i], distances[i], providers[i], flags[i], satellites[i]);
+        }
+
+        return track;
+    }
+
+
+    /* Reads the flags of the first WayPoint - skips over all other columns, returns 0 for an empty track */
+    public static byte readFirstFlags(DataInput in) throws IOException {
+        if (in.readInt() != TRACK_FILE_MAGIC) {
+            throw new IOException("Not a binary track file.");
+        }
+        int trackFormatVersion = in.readInt();
+        int size = in.readInt();
+        if (size == 0) {
+            return 0;
+        }
+        // the flags column is the last one
+        long offset = getColumnOffset(trackFormatVersion, size, COLUMN_WIDTHS.length - 1) - 12;
+        while (offset > 0) {
+            int skipped = in.skipBytes((int) Math.min(offset, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new IOException("Truncated track file.");
+            }
+            offset -= skipped;
+        }
+        return in.readByte();
+    }
+
+
+    /* Checks if time and elapsed realtime columns of a file of given version are eight bytes wide */
+    public static boolean hasLongTimeColumns(int trackFormatVersion) {
+        return trackFormatVersion > INT_TIME_COLUMNS_VERSION;
+    }
+
+
+    /* Returns start of given column in a file of given version and size - see file layout */
+    public static long getColumnOffset(int trackFormatVersion, int size, int column) {
+        int[] columnWidths = hasLongTimeColumns(trackFormatVersion) ? COLUMN_WIDTHS : INT_TIME_COLUMN_WIDTHS;
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < column; i++) {
+            offset += (long) columnWidths[i] * size;
+        }
+        return offset;
+    }
+
+
+    /* Returns number of bytes needed by given number of WayPoints in a file of given version - without header */
+    public static long getColumnsSize(int trackFormatVersion, int size) {
+        return getColumnOffset(trackFormatVersion, size, COLUMN_WIDTHS.length) - HEADER_SIZE;
+    }
+
+
+    /* Converts a latitude or longitude into fixed point representation */
+    public static int encodeCoordinate(double degrees) {
+        return (int) Math.round(degrees * COORDINATE_FACTOR);
+    }
+
+
+    /* Converts a fixed point latitude or longitude into degrees */
+    public static double decodeCoordinate(int coordinate) {
+        return coordinate / COORDINATE_FACTOR;
+    }
+
+
+    /* Reads a column of ints */
+    private static int[] readIntColumn(DataInput in, int size) throws IOException {
+        int[] column = new int[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+
+    /* Reads a column of ints - widened to longs */
+    private static long[] readIntColumnAsLong(DataInput in, int size) throws IOException {
+        long[] column = new long[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+
+    /* Reads a column of longs */
+    private static long[] readLongColumn(DataInput in, int size) throws IOException {
+        long[] column = new long[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readLong();
+        }
+        return column;
+    }
+
+
+    /* Reads a column of floats */
+    private static float[] readFloatColumn(DataInput in, int size) throws IOException {
+        float[] column = new float[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readFloat();
+        }
+        return column;
+    }
+
+
+    /* Reads a column of bytes */
+    private static byte[] readByteColumn(DataInput in, int size) throws IOException {
+        byte[] column = new byte[size];
+        in.readFully(column);
+        return column;
+    }
+
+}
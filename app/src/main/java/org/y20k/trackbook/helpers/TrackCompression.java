@@ -0,0 +1,292 @@
+/**
+ * TrackCompression.java
+ * Implements the TrackCompression class
+ * A TrackCompression reads and writes track files in binary format, deflated in independent blocks
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * TrackCompression class
+ *
+ * File layout (big endian):
+ * HEADER  magic (TRACK_FILE_COMPRESSED_MAGIC), codec (CODEC_*), compression level
+ * BLOCKS  the track in binary format (see TrackCodec), cut into blocks of BLOCK_SIZE bytes -
+ *         each block: compressed length, raw length, deflated bytes
+ *
+ * Blocks are deflated independently, so a reader can skip blocks it does not need - e.g. all
+ * columns before the flags column - without inflating them.
+ */
+public final class TrackCompression implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackCompression.class.getSimpleName();
+
+
+    /* Codecs */
+    public static final int CODEC_DEFLATE = 1;
+
+    /* Layout of compressed track files */
+    public static final int HEADER_SIZE = 12; // bytes
+    private static final int BLOCK_SIZE = 64 * 1024; // raw bytes per block
+
+
+    /* Writes given track in compressed binary format - level as in Deflater (1 = fastest, 9 = smallest) */
+    public static void writeTrack(Track track, OutputStream out, int level) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(TRACK_FILE_COMPRESSED_MAGIC);
+        header.writeInt(CODEC_DEFLATE);
+        header.writeInt(level);
+        header.flush();
+
+        BlockOutputStream blocks = new BlockOutputStream(out, level);
+        try {
+            TrackCodec.writeTrack(track, new DataOutputStream(blocks));
+            blocks.finish();
+        } finally {
+            blocks.end();
+        }
+    }
+
+
+    /* Reads a track in compressed binary format - including the header */
+    public static Track readTrack(InputStream in) throws IOException {
+        try (BlockInputStream blocks = openTrack(in)) {
+            return TrackCodec.readTrack(new DataInputStream(blocks));
+        }
+    }
+
+
+    /* Reads the header and returns a stream of the track in (uncompressed) binary format */
+    public static BlockInputStream openTrack(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != TRACK_FILE_COMPRESSED_MAGIC) {
+            throw new IOException("Not a compressed track file.");
+        }
+        int codec = header.readInt();
+        if (codec != CODEC_DEFLATE) {
+            throw new IOException("Unsupported track codec: " + codec);
+        }
+        header.readInt(); // level - only needed for writing
+        return new BlockInputStream(in);
+    }
+
+
+    /**
+     * Inner class: Deflates written bytes block by block
+     */
+    private static final class BlockOutputStream extends OutputStream {
+
+        private final DataOutputStream mOut;
+        private final Deflater mDeflater;
+        private final byte[] mBlock;
+        private byte[] mCompressedBlock;
+        private int mCount;
+
+        BlockOutputStream(OutputStream out, int level) {
+            mOut = new DataOutputStream(out);
+            mDeflater = new Deflater(level);
+            mBlock = new byte[BLOCK_SIZE];
+            mCompressedBlock = new byte[BLOCK_SIZE];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == BLOCK_SIZE) {
+                writeBlock();
+            }
+            mBlock[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (mCount == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                int count = Math.min(length, BLOCK_SIZE - mCount);
+                System.arraycopy(bytes, offset, mBlock, mCount, count);
+                mCount += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /* Writes the last block - does not close the underlying stream */
+        void finish() throws IOException {
+            if (mCount > 0) {
+                writeBlock();
+            }
+            mOut.flush();
+        }
+
+        /* Releases the native deflater */
+        void end() {
+            mDeflater.end();
+        }
+
+        private void writeBlock() throws IOException {
+            mDeflater.reset();
+            mDeflater.setInput(mBlock, 0, mCount);
+            mDeflater.finish();
+            int compressedLength = 0;
+            while (!mDeflater.finished()) {
+                if (compressedLength == mCompressedBlock.length) {
+                    // incompressible data - deflate output may exceed its input
+                    byte[] compressedBlock = new byte[mCompressedBlock.length * 2];
+                    System.arraycopy(mCompressedBlock, 0, compressedBlock, 0, compressedLength);
+                    mCompressedBlock = compressedBlock;
+                }
+                compressedLength += mDeflater.deflate(mCompressedBlock, compressedLength, mCompressedBlock.length - compressedLength);
+            }
+            mOut.writeInt(compressedLength);
+            mOut.writeInt(mCount);
+            mOut.write(mCompressedBlock, 0, compressedLength);
+            mCount = 0;
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+
+    /**
+     * Inner class: Inflates blocks on demand - skipping over a whole block does not inflate it
+     */
+    public static final class BlockInputStream extends InputStream {
+
+        private final DataInputStream mIn;
+        private final Inflater mInflater;
+        private byte[] mCompressedBlock;
+        private final byte[] mBlock;
+        private int mCompressedLength;
+        private int mRawLength;
+        private int mPosition;
+        private int mLimit;
+
+        BlockInputStream(InputStream in) {
+            mIn = new DataInputStream(in);
+            mInflater = new Inflater();
+            mCompressedBlock = new byte[BLOCK_SIZE];
+            mBlock = new byte[BLOCK_SIZE];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition == mLimit && !nextBlock()) {
+                return -1;
+            }
+            return mBlock[mPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mPosition == mLimit && !nextBlock()) {
+                return -1;
+            }
+            int count = Math.min(length, mLimit - mPosition);
+            System.arraycopy(mBlock, mPosition, bytes, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skip rest of current block
+            long skipped = Math.min(n, mLimit - mPosition);
+            mPosition += (int) skipped;
+
+            while (skipped < n && readBlockHeader()) {
+                if (mRawLength <= n - skipped) {
+                    // whole block is skipped - no need to inflate it
+                    mIn.skipBytes(mCompressedLength);
+                    skipped += mRawLength;
+                } else {
+                    inflateBlock();
+                    mPosition = (int) (n - skipped);
+                    skipped = n;
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInflater.end();
+            mIn.close();
+        }
+
+        /* Reads and inflates the next block - returns false at the end of the file */
+        private boolean nextBlock() throws IOException {
+            if (!readBlockHeader()) {
+                return false;
+            }
+            inflateBlock();
+            return true;
+        }
+
+        /* Reads lengths of the next block - returns false at the end of the file */
+        private boolean readBlockHeader() throws IOException {
+            try {
+                mCompressedLength = mIn.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            mRawLength = mIn.readInt();
+            if (mCompressedLength < 0 || mRawLength <= 0 || mRawLength > BLOCK_SIZE) {
+                throw new IOException("Damaged block in compressed track file.");
+            }
+            mPosition = 0;
+            mLimit = 0;
+            return true;
+        }
+
+        /* Inflates the block whose header has just been read */
+        private void inflateBlock() throws IOException {
+            if (mCompressedLength > mCompressedBlock.length) {
+                mCompressedBlock = new byte[mCompressedLength];
+            }
+            mIn.readFully(mCompressedBlock, 0, mCompressedLength);
+            mInflater.reset();
+            mInflater.setInput(mCompressedBlock, 0, mCompressedLength);
+            try {
+                mLimit = mInflater.inflate(mBlock, 0, mRawLength);
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged block in compressed track file.", e);
+            }
+            if (mLimit != mRawLength) {
+                throw new IOException("Truncated block in compressed track file.");
+            }
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
@@ -0,0 +1,294 @@
+/**
+ * TrackJournal.java
+ * Implements the TrackJournal class
+ * A TrackJournal appends the WayPoints of a running recording to an append-only file
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.location.Location;
+import android.os.Bundle;
+
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.WayPoint;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * TrackJournal class
+ *
+ * File layout: a header (magic, format version, recording start) followed by fixed-size records.
+ * Records are collected in memory and written plus synced to disk in batches of JOURNAL_BATCH_SIZE,
+ * so appending costs O(1) per WayPoint and a killed process loses at most one batch.
+ */
+public class TrackJournal implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackJournal.class.getSimpleName();
+
+
+    /* Layout of journal files */
+    public static final int JOURNAL_MAGIC = 0x54524B4A; // "TRKJ"
+    public static final int HEADER_SIZE = 16; // bytes
+    public static final int RECORD_SIZE = 44; // bytes
+    public static final int JOURNAL_BATCH_SIZE = 4; // records per disk write
+
+    /* Record types */
+    private static final byte RECORD_WAYPOINT = 1;
+    private static final byte RECORD_STATISTICS = 2;
+    private static final byte RECORD_END = 3;
+
+
+    /* Main class variables */
+    private final File mFile;
+    private final ExecutorService mWriter;
+    private final ByteBuffer mBatch;
+    private FileOutputStream mOutputStream;
+
+
+    /* Constructor - creates a new journal file, replacing an existing one */
+    public TrackJournal(File file, Date recordingStart) {
+        mFile = file;
+        mWriter = Executors.newSingleThreadExecutor();
+        mBatch = ByteBuffer.allocate(RECORD_SIZE * JOURNAL_BATCH_SIZE);
+
+        // write header
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC);
+        header.putInt(CURRENT_TRACK_FORMAT_VERSION);
+        header.putLong(recordingStart.getTime());
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOutputStream = new FileOutputStream(mFile, false);
+                    mOutputStream.write(header.array());
+                    mOutputStream.getFD().sync();
+                } catch (IOException e) {
+                    LogHelper.e(LOG_TAG, "Unable to create journal: " + mFile.toString());
+                    mOutputStream = null;
+                }
+            }
+        });
+    }
+
+
+    /* Appends a WayPoint */
+    public void appendWayPoint(WayPoint wayPoint) {
+        Location location = wayPoint.getLocation();
+        startRecord(RECORD_WAYPOINT);
+        mBatch.put(LocationHelper.getProviderId(location.getProvider()));
+        mBatch.put(encodeFlags(location));
+        mBatch.put((byte) Math.min(wayPoint.getNumberSatellites(), Byte.MAX_VALUE));
+        mBatch.putDouble(location.getLatitude());
+        mBatch.putDouble(location.getLongitude());
+        mBatch.putLong(location.getTime());
+        mBatch.putLong(location.getElapsedRealtimeNanos());
+        mBatch.putFloat(location.getAccuracy());
+        mBatch.putFloat((float) location.getAltitude());
+        finishRecord();
+    }
+
+
+    /* Appends duration and step count */
+    public void appendStatistics(long duration, float stepCount) {
+        startRecord(RECORD_STATISTICS);
+        mBatch.put(new byte[3]);
+        mBatch.putLong(duration);
+        mBatch.putFloat(stepCount);
+        finishRecord();
+    }
+
+
+    /* Marks the end of the recording and closes the journal */
+    public void close(Date recordingStop) {
+        startRecord(RECORD_END);
+        mBatch.put(new byte[3]);
+        mBatch.putLong(recordingStop.getTime());
+        finishRecord();
+        release();
+    }
+
+
+    /* Writes remaining records and closes the file - without marking the end, so the recording can be recovered */
+    public void release() {
+        flush();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mOutputStream != null) {
+                    try {
+                        mOutputStream.close();
+                    } catch (IOException e) {
+                        LogHelper.e(LOG_TAG, "Unable to close journal: " + mFile.toString());
+                    }
+                    mOutputStream = null;
+                }
+            }
+        });
+        mWriter.shutdown();
+    }
+
+
+    /* Rebuilds a track by replaying a journal file */
+    public static Track replay(File file) {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            LogHelper.v(LOG_TAG, "Replaying journal: " + file.toString());
+
+            // read header
+            if (in.readInt() != JOURNAL_MAGIC) {
+                LogHelper.e(LOG_TAG, "Not a journal file: " + file.toString());
+                return null;
+            }
+            int trackFormatVersion = in.readInt();
+            Date recordingStart = new Date(in.readLong());
+            Date recordingStop = recordingStart;
+            long duration = 0;
+            float stepCount = 0f;
+
+            // re-add WayPoints - distance and stopovers are computed as during the recording
+            Track track = new Track(trackFormatVersion, 0f, 0, 0f, recordingStart, recordingStop);
+            byte[] record = new byte[RECORD_SIZE];
+            while (readRecord(in, record)) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                byte type = buffer.get();
+                if (type == RECORD_WAYPOINT) {
+                    track.addWayPoint(readLocation(buffer));
+                } else if (type == RECORD_STATISTICS) {
+                    buffer.position(4);
+                    duration = buffer.getLong();
+                    stepCount = buffer.getFloat();
+                } else if (type == RECORD_END) {
+                    buffer.position(4);
+                    recordingStop = new Date(buffer.getLong());
+                }
+            }
+
+            track.setDuration(duration);
+            track.setStepCount(stepCount);
+            track.setRecordingStop(recordingStop);
+            return track;
+
+        } catch (IOException e) {
+            LogHelper.e(LOG_TAG, "Unable to replay journal: " + file.toString());
+            return null;
+        }
+    }
+
+
+    /* Reads one record - returns false at the end of the journal or at an incomplete record */
+    private static boolean readRecord(DataInputStream in, byte[] record) throws IOException {
+        try {
+            in.readFully(record);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+
+    /* Creates a Location from a WayPoint record */
+    private static Location readLocation(ByteBuffer buffer) {
+        byte provider = buffer.get();
+        byte flags = buffer.get();
+        int numberSatellites = buffer.get();
+
+        Location location = new Location(LocationHelper.getProviderName(provider));
+        location.setLatitude(buffer.getDouble());
+        location.setLongitude(buffer.getDouble());
+        location.setTime(buffer.getLong());
+        location.setElapsedRealtimeNanos(buffer.getLong());
+        float accuracy = buffer.getFloat();
+        float altitude = buffer.getFloat();
+        if ((flags & WAYPOINT_FLAG_HAS_ACCURACY) != 0) {
+            location.setAccuracy(accuracy);
+        }
+        if ((flags & WAYPOINT_FLAG_HAS_ALTITUDE) != 0) {
+            location.setAltitude(altitude);
+        }
+        if (numberSatellites > 0) {
+            Bundle extras = new Bundle();
+            extras.putInt("satellites", numberSatellites);
+            location.setExtras(extras);
+        }
+        return location;
+    }
+
+
+    /* Packs optional Location fields into a flags byte */
+    private static byte encodeFlags(Location location) {
+        int flags = 0;
+        if (location.hasAltitude()) {
+            flags |= WAYPOINT_FLAG_HAS_ALTITUDE;
+        }
+        if (location.hasAccuracy()) {
+            flags |= WAYPOINT_FLAG_HAS_ACCURACY;
+        }
+        return (byte) flags;
+    }
+
+
+    /* Starts a new record in the current batch */
+    private void startRecord(byte type) {
+        mBatch.put(type);
+    }
+
+
+    /* Pads the current record to RECORD_SIZE and writes the batch if it is full */
+    private void finishRecord() {
+        int padding = RECORD_SIZE - (mBatch.position() % RECORD_SIZE);
+        if (padding < RECORD_SIZE) {
+            mBatch.put(new byte[padding]);
+        }
+        if (!mBatch.hasRemaining()) {
+            flush();
+        }
+    }
+
+
+    /* Hands the current batch to the writer thread - which writes and syncs it */
+    private void flush() {
+        if (mBatch.position() == 0) {
+            return;
+        }
+        final byte[] batch = Arrays.copyOf(mBatch.array(), mBatch.position());
+        mBatch.clear();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mOutputStream != null) {
+                    try {
+                        mOutputStream.write(batch);
+                        mOutputStream.getFD().sync();
+                    } catch (IOException e) {
+                        LogHelper.e(LOG_TAG, "Unable to append to journal: " + mFile.toString());
+                    }
+                }
+            }
+        });
+    }
+
+}
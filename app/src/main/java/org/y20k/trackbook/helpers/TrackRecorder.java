@@ -0,0 +1,132 @@
+/**
+ * TrackRecorder.java
+ * Implements the TrackRecorder class
+ * A TrackRecorder decides for every incoming location fix whether it becomes a WayPoint of the recorded track
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.WayPoint;
+
+
+/**
+ * TrackRecorder class
+ * Fixes are evaluated as they arrive: a fix has to be better than the current best location
+ * (LocationHelper.isBetterLocation) and far enough from the last WayPoint (LocationHelper.isNewWayPoint).
+ * The last WayPoint is kept in a reused Location object, so evaluating a fix does not allocate.
+ * An optional LocationFilter smoothes each fix in place before it is evaluated - hand the raw fix
+ * to anything else (e.g. LocationScheduler) first.
+ */
+public class TrackRecorder implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackRecorder.class.getSimpleName();
+
+
+    /* Main class variables */
+    private final Track mTrack;
+    private final Location mLastWayPoint;
+    private final float[] mDistanceResult = new float[1];
+    private final LocationFilter mFilter;
+    private Location mCurrentBestLocation;
+
+
+    /* Constructor */
+    public TrackRecorder(Track track) {
+        this(track, null);
+    }
+
+
+    /* Constructor - filter may be null */
+    public TrackRecorder(Track track, LocationFilter filter) {
+        mTrack = track;
+        mFilter = filter;
+        mLastWayPoint = new Location(LocationManager.GPS_PROVIDER);
+        int trackSize = track.getSize();
+        if (trackSize > 0) {
+            mLastWayPoint.set(track.getWayPointLocation(trackSize - 1));
+        }
+    }
+
+
+    /* Getter for track */
+    public Track getTrack() {
+        return mTrack;
+    }
+
+
+    /* Getter for current best location */
+    public Location getCurrentBestLocation() {
+        return mCurrentBestLocation;
+    }
+
+
+    /* Starts with a location known before recording - it becomes the first WayPoint of an empty track */
+    public WayPoint start(Location lastLocation) {
+        if (lastLocation == null) {
+            return null;
+        }
+        mCurrentBestLocation = lastLocation;
+        return mTrack.getSize() == 0 ? addWayPoint(lastLocation) : null;
+    }
+
+
+    /* Evaluates a new location fix - returns the new WayPoint, or null if the fix was not accepted */
+    public WayPoint onLocationChanged(Location location) {
+        // smooth fix in place
+        if (mFilter != null) {
+            mFilter.filter(location);
+        }
+
+        // only fixes better than the current best location are considered
+        if (!LocationHelper.isBetterLocation(location, mCurrentBestLocation)) {
+            return null;
+        }
+        mCurrentBestLocation = location;
+
+        int trackSize = mTrack.getSize();
+        if (trackSize == 0) {
+            // first fix of the recording
+            return addWayPoint(location);
+        } else if (LocationHelper.isNewWayPoint(mLastWayPoint, location, getAverageSpeed(location))) {
+            return addWayPoint(location);
+        } else {
+            return null;
+        }
+    }
+
+
+    /* Adds location as WayPoint and remembers it for the next comparison */
+    private WayPoint addWayPoint(Location location) {
+        WayPoint wayPoint = mTrack.addWayPoint(location);
+        mLastWayPoint.set(location);
+        return wayPoint;
+    }
+
+
+    /* Computes average speed between first and last WayPoint - only needed for the plausibility check of network fixes */
+    private float getAverageSpeed(Location location) {
+        int trackSize = mTrack.getSize();
+        if (trackSize < 2 || !LocationManager.NETWORK_PROVIDER.equals(location.getProvider())) {
+            return 0f;
+        }
+        Location.distanceBetween(mTrack.getLatitude(0), mTrack.getLongitude(0), mTrack.getLatitude(trackSize - 1), mTrack.getLongitude(trackSize - 1), mDistanceResult);
+        long timeDifference = mTrack.getElapsedRealtimeNanos(trackSize - 1) - mTrack.getElapsedRealtimeNanos(0);
+        return mDistanceResult[0] / ((float) timeDifference / ONE_NANOSECOND);
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * TrackRepository.java
+ * Implements the TrackRepository class
+ * A TrackRepository keeps a process-wide, sorted view of the track files in the tracks folder
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.content.Context;
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * TrackRepository class
+ * The folder is listed and sorted only when the cached view has been invalidated - by a write of
+ * StorageHelper or by a FileObserver noticing that track files were added or removed by others
+ */
+public final class TrackRepository implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackRepository.class.getSimpleName();
+
+
+    /* Folder events that change the list of track files */
+    private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF;
+
+
+    /* Singleton instance */
+    private static TrackRepository sInstance;
+
+
+    /* Main class variables */
+    private final File mFolder;
+    private final String mTempFileName;
+    private final FileObserver mFolderObserver;
+    private File[] mTrackFiles;
+
+
+    /* Returns the process-wide instance - creates it on first use */
+    public static synchronized TrackRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrackRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+
+    /* Constructor */
+    private TrackRepository(Context context) {
+        // get "tracks" folder
+        mFolder = context.getExternalFilesDir(TRACKS_DIRECTORY_NAME);
+
+        // create "tracks" folder if necessary
+        if (mFolder != null && !mFolder.exists()) {
+            LogHelper.v(LOG_TAG, "Creating new folder: " + mFolder.toString());
+            mFolder.mkdirs();
+        }
+        mTempFileName = FILE_NAME_TEMP + FILE_TYPE_TRACKBOOK_EXTENSION;
+
+        // watch folder - the observer must stay referenced to keep receiving events
+        if (mFolder != null) {
+            mFolderObserver = new FileObserver(mFolder.getPath(), OBSERVED_EVENTS) {
+                @Override
+                public void onEvent(int event, String path) {
+                    if ((event & DELETE_SELF) != 0 || (path != null && isTrackFileName(path))) {
+                        invalidate();
+                    }
+                }
+            };
+            mFolderObserver.startWatching();
+        } else {
+            mFolderObserver = null;
+        }
+    }
+
+
+    /* Getter for tracks folder */
+    public File getFolder() {
+        return mFolder;
+    }
+
+
+    /* Returns track files - newest first, excluding the temp file */
+    public File[] getTrackFiles() {
+        return getSortedTrackFiles().clone();
+    }
+
+
+    /* Returns the newest track file - or null */
+    public File getMostCurrentTrackFile() {
+        File[] trackFiles = getSortedTrackFiles();
+        return trackFiles.length > 0 ? trackFiles[0] : null;
+    }
+
+
+    /* Drops the cached view - the folder is listed again on next access */
+    public synchronized void invalidate() {
+        mTrackFiles = null;
+    }
+
+
+    /* Checks if a file name belongs to a track file - and not to the temp file or a journal */
+    public boolean isTrackFileName(String fileName) {
+        return fileName.endsWith(FILE_TYPE_TRACKBOOK_EXTENSION) && !fileName.equals(mTempFileName);
+    }
+
+
+    /* Returns cached view of track files - lists and sorts folder if necessary */
+    private synchronized File[] getSortedTrackFiles() {
+        if (mTrackFiles == null) {
+            mTrackFiles = listTrackFiles();
+        }
+        return mTrackFiles;
+    }
+
+
+    /* Lists track files in folder and sorts them - newest first */
+    private File[] listTrackFiles() {
+        LogHelper.v(LOG_TAG, "Listing track files.");
+        File[] files = mFolder != null ? mFolder.listFiles() : null;
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> trackFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (isTrackFileName(file.getName())) {
+                trackFiles.add(file);
+            }
+        }
+
+        // file names start with the date of the recording - reverse order puts the newest first
+        File[] sortedFiles = trackFiles.toArray(new File[trackFiles.size()]);
+        Arrays.sort(sortedFiles, Collections.<File>reverseOrder());
+        return sortedFiles;
+    }
+
+}
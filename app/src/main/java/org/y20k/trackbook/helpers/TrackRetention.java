@@ -0,0 +1,213 @@
+/**
+ * TrackRetention.java
+ * Implements the TrackRetention class
+ * A TrackRetention keeps the storage taken by recordings bounded - by compacting old tracks instead of deleting them
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.TrackBundle;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+
+/**
+ * TrackRetention class
+ * Policies (stored in the default shared preferences):
+ *   PREFS_RETENTION_MAX_TRACKS    newest tracks kept at full detail - older tracks get simplified geometry
+ *   PREFS_RETENTION_MAX_AGE_DAYS  tracks older than this get simplified geometry (0 = no age limit)
+ * Tracks are never deleted or moved out of the track list - the newest track is always kept at full detail.
+ * Each run compacts a few tracks only and then queues the next run behind other writes,
+ * so saves never wait for a whole compaction pass.
+ */
+public class TrackRetention implements TrackbookKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackRetention.class.getSimpleName();
+
+
+    /* Number of tracks compacted per run */
+    private static final int TRACKS_PER_RUN = 2;
+
+    /* Maximum deviation of simplified geometry from the recorded WayPoints */
+    private static final double SIMPLIFY_TOLERANCE = 5.0; // meters
+
+    private static final double EARTH_RADIUS = 6371009.0; // meters
+    private static final long ONE_DAY_IN_MILLISECONDS = 86400000L;
+
+
+    /* Main class variables */
+    private final int mMaxTracks;
+    private final int mMaxAgeDays;
+
+
+    /* Constructor - reads policies from preferences */
+    public TrackRetention(Context context) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        mMaxTracks = Math.max(1, settings.getInt(PREFS_RETENTION_MAX_TRACKS, MAXIMUM_TRACK_FILES));
+        mMaxAgeDays = settings.getInt(PREFS_RETENTION_MAX_AGE_DAYS, 0);
+    }
+
+
+    /* Queues a retention run in the write lane - runs continue in the background until all policies are met */
+    public static void schedule(Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        IoScheduler.getInstance().write(TrackRetention.class, TASK_APPLY_RETENTION, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean moreWork = new TrackRetention(applicationContext).applyPolicies(new StorageHelper(applicationContext));
+                if (moreWork) {
+                    schedule(applicationContext);
+                }
+                return moreWork;
+            }
+        }, null);
+    }
+
+
+    /* Compacts up to TRACKS_PER_RUN tracks - returns true if policies may still be exceeded */
+    public boolean applyPolicies(StorageHelper storageHelper) {
+        List<TrackBundle> trackBundles = storageHelper.getListOfTrackBundles();
+        int budget = TRACKS_PER_RUN;
+
+        // tracks beyond count or age limit: simplify geometry - the newest track always stays, empty tracks have nothing to simplify
+        long oldestFullDetail = mMaxAgeDays > 0 ? System.currentTimeMillis() - mMaxAgeDays * ONE_DAY_IN_MILLISECONDS : Long.MIN_VALUE;
+        for (int i = 1; i < trackBundles.size() && budget > 0; i++) {
+            TrackBundle trackBundle = trackBundles.get(i);
+            if ((i >= mMaxTracks || trackBundle.getRecordingStart().getTime() < oldestFullDetail) && trackBundle.getSize() > 0
+                    && !storageHelper.isSimplifiedTrack(trackBundle.getTrackFile())) {
+                if (simplifyTrack(storageHelper, trackBundle)) {
+                    budget--;
+                }
+            }
+        }
+
+        return budget == 0;
+    }
+
+
+    /* Replaces track file with a simplified version of the track */
+    private boolean simplifyTrack(StorageHelper storageHelper, TrackBundle trackBundle) {
+        File file = trackBundle.getTrackFile();
+        Track track = storageHelper.loadTrack(file);
+        if (track == null) {
+            return false;
+        }
+        Track simplifiedTrack = simplify(track, SIMPLIFY_TOLERANCE);
+        LogHelper.v(LOG_TAG, "Simplified track " + file.getName() + ": " + track.getSize() + " -> " + simplifiedTrack.getSize() + " WayPoints.");
+        return storageHelper.replaceTrack(file, simplifiedTrack);
+    }
+
+
+    /* Creates a copy of given track with fewer WayPoints - Douglas-Peucker, keeping first, last and stopover WayPoints */
+    public static Track simplify(Track track, double tolerance) {
+        int size = track.getSize();
+        boolean[] keep = new boolean[size];
+        int[] stack = new int[2 * Math.max(size, 1)];
+
+        // project coordinates onto a plane - accurate enough for the length of a track
+        double referenceLatitude = size > 0 ? Math.toRadians(track.getLatitude(0)) : 0;
+        double metersPerDegree = Math.toRadians(1) * EARTH_RADIUS;
+        double metersPerDegreeLongitude = metersPerDegree * Math.cos(referenceLatitude);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = track.getLongitude(i) * metersPerDegreeLongitude;
+            y[i] = track.getLatitude(i) * metersPerDegree;
+        }
+
+        // simplify each section between anchors - stopovers must survive
+        int anchor = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || i == size - 1 || track.getIsStopOver(i)) {
+                keep[i] = true;
+                if (i > anchor + 1) {
+                    simplifySection(x, y, anchor, i, tolerance, keep, stack);
+                }
+                anchor = i;
+            }
+        }
+
+        // copy kept WayPoints
+        Track simplifiedTrack = new Track(track.getTrackFormatVersion(), track.getTrackLength(), track.getDuration(), track.getStepCount(),
+                track.getRecordingStart(), track.getRecordingStop());
+        int keptCount = 0;
+        for (boolean kept : keep) {
+            if (kept) {
+                keptCount++;
+            }
+        }
+        simplifiedTrack.ensureCapacity(keptCount);
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                simplifiedTrack.restoreWayPoint(track.getLatitude(i), track.getLongitude(i), track.getTime(i), track.getElapsedRealtimeNanos(i),
+                        track.getAccuracy(i), track.getAltitude(i), track.getDistanceToStartingPoint(i), track.getProviderId(i),
+                        (byte) (track.getFlags(i) | WAYPOINT_FLAG_SIMPLIFIED), (byte) track.getNumberSatellites(i));
+            }
+        }
+        return simplifiedTrack;
+    }
+
+
+    /* Marks the WayPoints between first and last that are needed to stay within tolerance - iterative, using given stack */
+    private static void simplifySection(double[] x, double[] y, int first, int last, double tolerance, boolean[] keep, int[] stack) {
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            // find WayPoint farthest from the segment between start and end
+            double maxDistance = 0;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = distanceToSegment(x[i], y[i], x[start], y[start], x[end], y[end]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            // keep it and look at both halves
+            if (farthest >= 0 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+    }
+
+
+    /* Calculates distance of point p to the segment between a and b */
+    private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * TrackWriter.java
+ * Implements the TrackWriter interface
+ * A TrackWriter streams a Track object to a Writer in an export format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.helpers;
+
+import org.y20k.trackbook.core.Track;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * TrackWriter interface
+ * Implementations have to be stateless, since one instance is shared by all export workers
+ */
+public interface TrackWriter {
+
+    /* Number of WayPoints written between progress reports */
+    int PROGRESS_INTERVAL = 500;
+
+
+    /* Returns file extension of the export format - including the dot */
+    String getFileExtension();
+
+
+    /* Writes given track - returns false if listener cancelled the export */
+    boolean writeTrack(Track track, Writer writer, ExportHelper.ExportProgressListener listener) throws IOException;
+
+}
@@ -27,8 +27,6 @@ public interface TrackbookKeys {
     String ACTION_STOP = "org.y20k.trackbook.action.STOP";
     String ACTION_DEFAULT = "DEFAULT";
     String ACTION_SHOW_MAP = "SHOW_MAP";
-    String ACTION_TRACK_UPDATED = "TRACK_UPDATED";
-    String ACTION_TRACK_REQUEST = "TRACK_REQUEST";
     String ACTION_TRACKING_STOPPED = "TRACKING_STOPPED";
     String ACTION_TRACK_SAVE = "TRACK_SAVE";
 
@@ -54,6 +52,10 @@ public interface TrackbookKeys {
 
     /* PREFS */
     String PREFS_FAB_STATE = "fabStatePrefs";
+    String PREFS_RETENTION_MAX_TRACKS = "retentionMaxTracks";
+    String PREFS_RETENTION_MAX_AGE_DAYS = "retentionMaxAgeDays";
+    String PREFS_TRACK_COMPRESSION_LEVEL = "trackCompressionLevel";
+    String PREFS_LOCATION_FILTER = "locationFilter";
 
     /* INSTANCE STATE */
     String INSTANCE_FIRST_START = "firstStart";
@@ -75,6 +77,15 @@ public interface TrackbookKeys {
     int FRAGMENT_ID_MAP = 0;
     int FRAGMENT_ID_TRACK = 1;
 
+    /* IO TASKS */
+    String TASK_LOAD_TRACK = "loadTrack";
+    String TASK_LOAD_TEMP_TRACK = "loadTempTrack";
+    String TASK_LOAD_TRACK_BUNDLES = "loadTrackBundles";
+    String TASK_SAVE_TRACK = "saveTrack";
+    String TASK_APPLY_RETENTION = "applyRetention";
+    String TASK_IMPORT_TRACK = "importTrack";
+    String TASK_EXPORT_TRACKS = "exportTracks";
+
     /* RESULTS */
 
     /* CONSTANTS */
@@ -83,10 +94,13 @@ public interface TrackbookKeys {
     long FIFTEEN_SECONDS_IN_MILLISECONDS = 15000; // timer interval for tracking
     long FIVE_MINUTES_IN_NANOSECONDS = 5L * 60000000000L; // determines a stop over
     long TWO_MINUTES_IN_NANOSECONDS = 2L * 60000000000L; // defines an old location
-    int MAXIMUM_TRACK_FILES = 25;
+    int MAXIMUM_TRACK_FILES = 25; // default number of tracks kept at full detail
 
     /* MISC */
-    int CURRENT_TRACK_FORMAT_VERSION = 1; // incremental version number to prevent issues in case the Track format evolves
+    int CURRENT_TRACK_FORMAT_VERSION = 3; // incremental version number to prevent issues in case the Track format evolves
+    int TRACK_FILE_MAGIC = 0x54524B42; // "TRKB" - marks a .trackbook file in binary format (version 1 files are JSON)
+    int TRACK_FILE_COMPRESSED_MAGIC = 0x54524B5A; // "TRKZ" - marks a .trackbook file in binary format, deflated block by block
+    int TRACK_COMPRESSION_OFF = 0; // compression level for plain binary files - they can be memory-mapped
     int REQUEST_CODE_ASK_MULTIPLE_PERMISSIONS = 124;
     int TRACKER_SERVICE_NOTIFICATION_ID = 1;
     int INFOSHEET_CONTENT_ABOUT = 1;
@@ -97,6 +111,7 @@ public interface TrackbookKeys {
     int FAB_STATE_SAVE = 2;
     int FILE_TEMP_TRACK = 0;
     int FILE_MOST_CURRENT_TRACK = 1;
+    int FILE_IMPORTED_TRACK = 2;
     int NEW_DROPDOWN_ITEM = -1;
 
     int RESULT_SAVE_DIALOG = 1;
@@ -104,13 +119,25 @@ public interface TrackbookKeys {
     int RESULT_DELETE_DIALOG = 3;
     int RESULT_EXPORT_DIALOG = 4;
 
+    int WAYPOINT_FLAG_STOP_OVER = 1;
+    int WAYPOINT_FLAG_HAS_ALTITUDE = 2;
+    int WAYPOINT_FLAG_HAS_ACCURACY = 4;
+    int WAYPOINT_FLAG_SIMPLIFIED = 8; // WayPoint belongs to a track with simplified geometry
+
     int STORAGE_TRACKS = 1;
     int STORAGE_DOWNLOADS = 2;
 
     String TRACKS_DIRECTORY_NAME = "tracks";
     String FILE_TYPE_GPX_EXTENSION = ".gpx";
+    String FILE_TYPE_KML_EXTENSION = ".kml";
+    String FILE_TYPE_GEOJSON_EXTENSION = ".geojson";
+    String FILE_TYPE_ZIP_EXTENSION = ".zip";
     String FILE_TYPE_TRACKBOOK_EXTENSION = ".trackbook";
+    String FILE_TYPE_JOURNAL_EXTENSION = ".journal";
+    String FILE_TYPE_TEMP_EXTENSION = ".tmp";
+    String FILE_TYPE_INDEX_EXTENSION = ".index";
     String FILE_NAME_TEMP = "temp";
+    String FILE_NAME_CATALOG = "catalog";
 
 
     double DEFAULT_LATITUDE = 49.41667; // latitude Nordkapp, Norway
@@ -0,0 +1,194 @@
+/**
+ * TrackOverlay.java
+ * Implements the TrackOverlay class
+ * A TrackOverlay is an icon overlay marking starting point, stopovers and current position of a track
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.layout;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.support.v7.widget.AppCompatDrawableManager;
+import android.widget.Toast;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.overlay.ItemizedIconOverlay;
+import org.osmdroid.views.overlay.OverlayItem;
+import org.y20k.trackbook.R;
+import org.y20k.trackbook.core.Track;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * TrackOverlay class
+ * The line between the WayPoints is drawn by TrackPathOverlay. Marker drawables are shared by all
+ * items of a style - titles are only created when an item is tapped
+ */
+public class TrackOverlay extends ItemizedIconOverlay<OverlayItem> {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackOverlay.class.getSimpleName();
+
+
+    /* Main class variables */
+    private final Context mContext;
+    private final Drawable mCrumbRed;
+    private final Drawable mCrumbGrey;
+    private final Drawable mCrumbBlue;
+    private final Drawable mDotRed;
+    private final Drawable mDotGrey;
+    private Track mTrack;
+    private int mTrackSize;
+    private boolean mTrackingActive;
+
+
+    /* Constructor */
+    public TrackOverlay(final Context context, Track track, boolean trackingActive) {
+        super(new ArrayList<OverlayItem>(), createGestureListener(context), context);
+        mContext = context;
+        mCrumbRed = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_red_24dp);
+        mCrumbGrey = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_grey_24dp);
+        mCrumbBlue = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_crumb_blue_24dp);
+        mDotRed = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_dot_red_24dp);
+        mDotGrey = AppCompatDrawableManager.get().getDrawable(context, R.drawable.ic_my_location_dot_grey_24dp);
+        update(track, trackingActive);
+    }
+
+
+    /* Updates overlay - only WayPoints added since the last update are checked */
+    public void update(Track track, boolean trackingActive) {
+
+        // start over if track or state changed
+        if (track != mTrack || trackingActive != mTrackingActive || track.getSize() < mTrackSize) {
+            removeAllItems();
+            mTrack = track;
+            mTrackSize = 0;
+            mTrackingActive = trackingActive;
+        }
+
+        int trackSize = track.getSize();
+        if (mTrackSize == trackSize) {
+            return;
+        }
+
+        // previous current position - keep it only if it is the starting point or has become a stopover
+        if (mTrackSize > 0) {
+            int previousIndex = mTrackSize - 1;
+            if (previousIndex == 0 || track.getIsStopOver(previousIndex)) {
+                mItemList.get(mItemList.size() - 1).setMarker(getMarker(previousIndex, trackSize));
+            } else {
+                removeItem(mItemList.size() - 1);
+            }
+        }
+
+        // add markers for starting point, stopovers and current position
+        List<OverlayItem> newItems = new ArrayList<>();
+        for (int i = mTrackSize; i < trackSize; i++) {
+            if (i == 0 || i == trackSize - 1 || track.getIsStopOver(i)) {
+                WayPointItem item = new WayPointItem(i, new GeoPoint(track.getLatitude(i), track.getLongitude(i)));
+                item.setMarker(getMarker(i, trackSize));
+                newItems.add(item);
+            }
+        }
+        addItems(newItems);
+        mTrackSize = trackSize;
+    }
+
+
+    /* Selects the marker for given WayPoint */
+    private Drawable getMarker(int index, int trackSize) {
+        boolean stopOver = mTrack.getIsStopOver(index);
+        boolean currentPosition = index == trackSize - 1;
+
+        if (mTrackingActive && !currentPosition) {
+            // CASE 1: Tracking active and WayPoint is not current position
+            return stopOver ? mCrumbGrey : mCrumbRed;
+        } else if (mTrackingActive) {
+            // CASE 2: Tracking active and WayPoint is current position
+            return stopOver ? mDotGrey : mDotRed;
+        } else if (!currentPosition) {
+            // CASE 3: Tracking not active and WayPoint is not current position
+            return stopOver ? mCrumbGrey : mCrumbBlue;
+        } else {
+            // CASE 4: Tracking not active and WayPoint is current position
+            return mCrumbBlue;
+        }
+    }
+
+
+    /* Creates title for given WayPoint - source and time */
+    static String getWayPointTitle(Context context, Track track, int index) {
+        String time = SimpleDateFormat.getTimeInstance(SimpleDateFormat.MEDIUM, Locale.getDefault()).format(track.getTime(index));
+        return context.getString(R.string.marker_description_source) + ": " + track.getProvider(index) + " | " + context.getString(R.string.marker_description_time) + ": " + time;
+    }
+
+
+    /* Creates snippet for given WayPoint - accuracy */
+    static String getWayPointSnippet(Context context, Track track, int index) {
+        return context.getString(R.string.marker_description_accuracy) + ": " + track.getAccuracy(index);
+    }
+
+
+    /* Creates listener for taps on WayPoints */
+    private static OnItemGestureListener<OverlayItem> createGestureListener(final Context context) {
+        return new OnItemGestureListener<OverlayItem>() {
+            @Override
+            public boolean onItemSingleTapUp(final int index, final OverlayItem item) {
+                // tap on waypoint
+                Toast.makeText(context, item.getTitle(), Toast.LENGTH_LONG).show();
+                return true;
+            }
+
+            @Override
+            public boolean onItemLongPress(final int index, final OverlayItem item) {
+                // long press on waypoint
+                Toast.makeText(context, item.getSnippet(), Toast.LENGTH_LONG).show();
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * Inner class: WayPointItem is an OverlayItem that builds title and snippet from the track on demand
+     */
+    private class WayPointItem extends OverlayItem {
+
+        private final Track mItemTrack;
+        private final int mIndex;
+
+        WayPointItem(int index, GeoPoint position) {
+            super(null, null, position);
+            mItemTrack = mTrack;
+            mIndex = index;
+        }
+
+        @Override
+        public String getTitle() {
+            return getWayPointTitle(mContext, mItemTrack, mIndex);
+        }
+
+        @Override
+        public String getSnippet() {
+            return getWayPointSnippet(mContext, mItemTrack, mIndex);
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
@@ -0,0 +1,353 @@
+/**
+ * TrackPathOverlay.java
+ * Implements the TrackPathOverlay class
+ * A TrackPathOverlay draws a track as a single line, simplified according to the zoom level
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.layout;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.support.v4.content.ContextCompat;
+import android.view.MotionEvent;
+import android.widget.Toast;
+
+import org.osmdroid.api.IGeoPoint;
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+import org.y20k.trackbook.R;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.LogHelper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import microsoft.mappoint.TileSystem;
+
+
+/**
+ * TrackPathOverlay class
+ * WayPoints are projected once into zoom independent pixel coordinates. For every zoom level the
+ * projected line is simplified with Douglas-Peucker and only segments inside the canvas are drawn.
+ * When zoomed in, the visible segments are looked up in the track's spatial index instead.
+ */
+public class TrackPathOverlay extends Overlay {
+
+    /* Define log tag */
+    private static final String LOG_TAG = TrackPathOverlay.class.getSimpleName();
+
+
+    /* Width of track line in dp */
+    private static final float LINE_WIDTH = 4f;
+
+    /* Maximum deviation of simplified line in pixels */
+    private static final int SIMPLIFICATION_TOLERANCE = 1;
+
+    /* Margin around canvas in pixels - segments inside are still drawn */
+    private static final int CLIP_MARGIN = 16;
+
+    /* Radius around a tap in dp - the closest WayPoint inside is shown */
+    private static final float TAP_RADIUS = 24f;
+
+
+    /* Main class variables */
+    private final Context mContext;
+    private final Paint mPaint;
+    private final int mColorTrackingActive;
+    private final int mColorTrackingInactive;
+    private final Path mPath = new Path();
+    private final Point mProjectedPoint = new Point();
+    private final Point mScreenPoint = new Point();
+    private final Rect mClipBounds = new Rect();
+    private final BitSet mVisibleWayPoints = new BitSet();
+    private final int mTapRadius;
+    private Track mTrack;
+    private int mProjectedSize;
+    private int[] mProjectedX = new int[0];
+    private int[] mProjectedY = new int[0];
+    private int mSimplifiedZoomLevel = -1;
+    private int mSimplifiedSize;
+    private int[] mSimplified = new int[0];
+    private boolean mIndexedPath;
+
+
+    /* Constructor */
+    public TrackPathOverlay(Context context, Track track, boolean trackingActive) {
+        super();
+        mContext = context;
+        mTapRadius = (int) (TAP_RADIUS * context.getResources().getDisplayMetrics().density);
+        mColorTrackingActive = ContextCompat.getColor(context, R.color.trackbook_red);
+        mColorTrackingInactive = ContextCompat.getColor(context, R.color.trackbook_blue);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(LINE_WIDTH * context.getResources().getDisplayMetrics().density);
+        update(track, trackingActive);
+    }
+
+
+    /* Updates overlay - WayPoints added since the last draw are projected and simplified on the next draw */
+    public void update(Track track, boolean trackingActive) {
+        if (track != mTrack || track.getSize() < mProjectedSize) {
+            // start over
+            mTrack = track;
+            mProjectedSize = 0;
+            mSimplifiedSize = 0;
+        }
+        mPaint.setColor(trackingActive ? mColorTrackingActive : mColorTrackingInactive);
+    }
+
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        if (shadow || mTrack == null) {
+            return;
+        }
+
+        Projection projection = mapView.getProjection();
+        projectNewWayPoints(projection);
+        mPath.rewind();
+
+        // zoomed in: get visible WayPoints from spatial index - zoomed out: draw simplified track
+        BoundingBox boundingBox = projection.getBoundingBox();
+        boolean indexedPath = mTrack.getIndex().findWayPoints(boundingBox.getLatNorth(), boundingBox.getLonEast(), boundingBox.getLatSouth(), boundingBox.getLonWest(), mVisibleWayPoints);
+        if (indexedPath != mIndexedPath) {
+            // log only when switching - draw runs for every frame
+            LogHelper.v(LOG_TAG, indexedPath ? "Drawing WayPoints from spatial index." : "Viewport too large for spatial index. Drawing simplified track.");
+            mIndexedPath = indexedPath;
+        }
+        if (indexedPath) {
+            createVisiblePath(projection);
+        } else {
+            createSimplifiedPath(projection, canvas);
+        }
+
+        canvas.drawPath(mPath, mPaint);
+    }
+
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent event, MapView mapView) {
+        if (mTrack == null || mTrack.getSize() == 0) {
+            return false;
+        }
+
+        // convert tap radius into degrees
+        Projection projection = mapView.getProjection();
+        IGeoPoint position = projection.fromPixels((int) event.getX(), (int) event.getY());
+        IGeoPoint edge = projection.fromPixels((int) event.getX(), (int) event.getY() + mTapRadius);
+        double maxDistance = Math.abs(position.getLatitude() - edge.getLatitude());
+
+        // show closest WayPoint
+        int index = mTrack.getIndex().findNearestWayPoint(position.getLatitude(), position.getLongitude(), maxDistance);
+        if (index == -1) {
+            return false;
+        }
+        Toast.makeText(mContext, TrackOverlay.getWayPointTitle(mContext, mTrack, index), Toast.LENGTH_LONG).show();
+        return true;
+    }
+
+
+    /* Creates path from the segments found in the spatial index */
+    private void createVisiblePath(Projection projection) {
+        int previousIndex = -2;
+        for (int i = mVisibleWayPoints.nextSetBit(0); i >= 0 && i < mProjectedSize; i = mVisibleWayPoints.nextSetBit(i + 1)) {
+            // WayPoint i stands for the segment from its predecessor
+            if (i > 0 && previousIndex != i - 1) {
+                toScreen(projection, i - 1);
+                mPath.moveTo(mScreenPoint.x, mScreenPoint.y);
+            }
+            toScreen(projection, i);
+            if (i > 0) {
+                mPath.lineTo(mScreenPoint.x, mScreenPoint.y);
+            } else {
+                mPath.moveTo(mScreenPoint.x, mScreenPoint.y);
+            }
+            previousIndex = i;
+        }
+    }
+
+
+    /* Creates path from the simplified track - segments outside the canvas are left out */
+    private void createSimplifiedPath(Projection projection, Canvas canvas) {
+        simplify(projection.getZoomLevel());
+        if (mSimplifiedSize < 2) {
+            return;
+        }
+
+        // get visible area
+        canvas.getClipBounds(mClipBounds);
+        mClipBounds.inset(-CLIP_MARGIN, -CLIP_MARGIN);
+
+        boolean penDown = false;
+        toScreen(projection, mSimplified[0]);
+        int previousX = mScreenPoint.x;
+        int previousY = mScreenPoint.y;
+        for (int i = 1; i < mSimplifiedSize; i++) {
+            toScreen(projection, mSimplified[i]);
+            int x = mScreenPoint.x;
+            int y = mScreenPoint.y;
+            if (isSegmentVisible(previousX, previousY, x, y)) {
+                if (!penDown) {
+                    mPath.moveTo(previousX, previousY);
+                    penDown = true;
+                }
+                mPath.lineTo(x, y);
+            } else {
+                penDown = false;
+            }
+            previousX = x;
+            previousY = y;
+        }
+    }
+
+
+    /* Projects the WayPoints not projected yet - projected coordinates do not depend on zoom level */
+    private void projectNewWayPoints(Projection projection) {
+        int trackSize = mTrack.getSize();
+        if (trackSize == mProjectedSize) {
+            return;
+        }
+        if (trackSize > mProjectedX.length) {
+            int capacity = Math.max(trackSize, mProjectedX.length * 2);
+            mProjectedX = Arrays.copyOf(mProjectedX, capacity);
+            mProjectedY = Arrays.copyOf(mProjectedY, capacity);
+        }
+        for (int i = mProjectedSize; i < trackSize; i++) {
+            projection.toProjectedPixels(mTrack.getLatitude(i), mTrack.getLongitude(i), mProjectedPoint);
+            mProjectedX[i] = mProjectedPoint.x;
+            mProjectedY[i] = mProjectedPoint.y;
+        }
+        mProjectedSize = trackSize;
+    }
+
+
+    /* Simplifies projected line for given zoom level - new WayPoints are simplified together with the last kept segment */
+    private void simplify(int zoomLevel) {
+        if (zoomLevel != mSimplifiedZoomLevel) {
+            mSimplifiedZoomLevel = zoomLevel;
+            mSimplifiedSize = 0;
+        }
+
+        int lastIndex = mProjectedSize - 1;
+        if (lastIndex < 0 || (mSimplifiedSize > 0 && mSimplified[mSimplifiedSize - 1] == lastIndex)) {
+            return;
+        }
+
+        // re-simplify from the second to last kept WayPoint - the last kept one may become obsolete
+        int firstIndex = 0;
+        if (mSimplifiedSize >= 2) {
+            mSimplifiedSize--;
+            firstIndex = mSimplified[mSimplifiedSize - 1];
+            mSimplifiedSize--;
+        } else {
+            mSimplifiedSize = 0;
+        }
+
+        // tolerance in projected pixels - one projected pixel equals 2^(maximum zoom - zoom) screen pixels
+        long tolerance = (long) SIMPLIFICATION_TOLERANCE << (TileSystem.getMaximumZoomLevel() - zoomLevel);
+        boolean[] keep = douglasPeucker(firstIndex, lastIndex, tolerance * tolerance);
+
+        // append kept WayPoints
+        if (mSimplified.length < mSimplifiedSize + keep.length) {
+            mSimplified = Arrays.copyOf(mSimplified, Math.max(mSimplifiedSize + keep.length, mSimplified.length * 2));
+        }
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                mSimplified[mSimplifiedSize++] = firstIndex + i;
+            }
+        }
+    }
+
+
+    /* Marks the WayPoints between first and last that are needed to stay within tolerance - iterative, tracks can be long */
+    private boolean[] douglasPeucker(int first, int last, long squaredTolerance) {
+        boolean[] keep = new boolean[last - first + 1];
+        keep[0] = true;
+        keep[last - first] = true;
+
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = first;
+        stack[stackSize++] = last;
+        while (stackSize > 0) {
+            int end = stack[--stackSize];
+            int start = stack[--stackSize];
+
+            // find WayPoint farthest away from line between start and end
+            long maxDistance = -1;
+            int maxIndex = -1;
+            for (int i = start + 1; i < end; i++) {
+                long distance = squaredSegmentDistance(i, start, end);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    maxIndex = i;
+                }
+            }
+
+            // keep it and split line if it is too far away
+            if (maxIndex != -1 && maxDistance > squaredTolerance) {
+                keep[maxIndex - first] = true;
+                if (stackSize + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = start;
+                stack[stackSize++] = maxIndex;
+                stack[stackSize++] = maxIndex;
+                stack[stackSize++] = end;
+            }
+        }
+        return keep;
+    }
+
+
+    /* Calculates squared distance of projected WayPoint to line segment between start and end */
+    private long squaredSegmentDistance(int index, int start, int end) {
+        double x = mProjectedX[index];
+        double y = mProjectedY[index];
+        double startX = mProjectedX[start];
+        double startY = mProjectedY[start];
+        double dx = mProjectedX[end] - startX;
+        double dy = mProjectedY[end] - startY;
+
+        double squaredLength = dx * dx + dy * dy;
+        double t = squaredLength == 0 ? 0 : ((x - startX) * dx + (y - startY) * dy) / squaredLength;
+        t = Math.max(0, Math.min(1, t));
+
+        double distanceX = x - (startX + t * dx);
+        double distanceY = y - (startY + t * dy);
+        return (long) (distanceX * distanceX + distanceY * distanceY);
+    }
+
+
+    /* Converts projected WayPoint into screen pixels */
+    private void toScreen(Projection projection, int index) {
+        mProjectedPoint.set(mProjectedX[index], mProjectedY[index]);
+        projection.toPixelsFromProjected(mProjectedPoint, mScreenPoint);
+    }
+
+
+    /* Checks if bounding box of segment intersects visible area */
+    private boolean isSegmentVisible(int x1, int y1, int x2, int y2) {
+        return Math.max(x1, x2) >= mClipBounds.left && Math.min(x1, x2) <= mClipBounds.right
+                && Math.max(y1, y2) >= mClipBounds.top && Math.min(y1, y2) <= mClipBounds.bottom;
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * ExportBenchmark.java
+ * Implements the ExportBenchmark class
+ * An ExportBenchmark measures writing tracks as GPX
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.ExportHelper;
+import org.y20k.trackbook.helpers.GpxWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * ExportBenchmark class
+ * GpxWriter is the writer ExportHelper uses for GPX files. Output goes to a writer that only
+ * counts characters, so the benchmark measures formatting, not the file system.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+
+    /* Main class variables */
+    private Track mTrack;
+    private GpxWriter mGpxWriter;
+    private ExportHelper.ExportProgressListener mListener;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mTrack = new TrackFactory(size).createTrack();
+        mGpxWriter = new GpxWriter();
+        mListener = new ExportHelper.ExportProgressListener() {
+            @Override
+            public void onExportProgress(int exportedWayPoints, int totalWayPoints) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+    }
+
+
+    @Benchmark
+    public long writeGpx() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        mGpxWriter.writeTrack(mTrack, writer, mListener);
+        return writer.mCount;
+    }
+
+
+    /**
+     * Inner class: Writer that counts characters and discards them
+     */
+    private static final class CountingWriter extends Writer {
+
+        private long mCount;
+
+        @Override
+        public void write(int c) {
+            mCount++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            mCount += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            mCount += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
@@ -0,0 +1,80 @@
+/**
+ * JsonBenchmark.java
+ * Implements the JsonBenchmark class
+ * A JsonBenchmark measures loading track files in the legacy JSON format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.StorageHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JsonBenchmark class
+ * Files are written the way older versions of the app stored tracks (see TrackFactory.writeLegacyJson).
+ * Sizes stop at 100000 WayPoints - a JSON file of a million WayPoints is about 300 MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+
+    /* Main class variables */
+    private File mJsonFile;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mJsonFile = File.createTempFile("benchmark", ".trackbook");
+        new TrackFactory(size).writeLegacyJson(mJsonFile);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mJsonFile.delete();
+    }
+
+
+    @Benchmark
+    public Track loadJson() {
+        return StorageHelper.readTrackFromFile(mJsonFile);
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * JsonHeapBenchmark.java
+ * Implements the JsonHeapBenchmark class
+ * A JsonHeapBenchmark measures the peak heap and the time needed to load a track file in the legacy JSON format
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.StorageHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JsonHeapBenchmark class
+ * The fork uses the serial collector with a 2 MB young generation, and every object that survives
+ * a collection is promoted right away - so the peak use of the old generation follows the objects
+ * held during a load, to within about 2 MB. peakHeapBytes is the largest such peak of all loads,
+ * minus the old generation in use before the load - it includes the loaded track itself.
+ * The heap is collected before every load, outside of the measured time. There is a single
+ * measurement iteration, because JMH adds up auxiliary counters over iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 1, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xmn2m", "-XX:MaxTenuringThreshold=0"})
+public class JsonHeapBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"50000"})
+    public int size;
+
+
+    /* Main class variables */
+    private File mJsonFile;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mJsonFile = File.createTempFile("benchmark", ".trackbook");
+        new TrackFactory(size).writeLegacyJson(mJsonFile);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mJsonFile.delete();
+    }
+
+
+    @Benchmark
+    public Track loadJson(HeapCounters heapCounters) {
+        Track track = StorageHelper.readTrackFromFile(mJsonFile);
+        heapCounters.measure();
+        return track;
+    }
+
+
+    /**
+     * Inner class: Reports peak heap of an iteration next to its time
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapCounters {
+
+        /* Peak heap during the load - in bytes */
+        public long peakHeapBytes;
+
+        private MemoryPoolMXBean mOldGeneration;
+        private long mBaseline;
+
+        @Setup(Level.Trial)
+        public void findOldGeneration() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && (pool.getName().contains("Tenured") || pool.getName().contains("Old"))) {
+                    mOldGeneration = pool;
+                }
+            }
+            if (mOldGeneration == null) {
+                throw new IllegalStateException("No old generation found - run with the serial collector.");
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void resetIteration() {
+            peakHeapBytes = 0;
+        }
+
+        @Setup(Level.Invocation)
+        public void resetInvocation() {
+            // start from a heap holding only what survives from before the load
+            System.gc();
+            mBaseline = mOldGeneration.getUsage().getUsed();
+            mOldGeneration.resetPeakUsage();
+        }
+
+        void measure() {
+            peakHeapBytes = Math.max(peakHeapBytes, mOldGeneration.getPeakUsage().getUsed() - mBaseline);
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}
@@ -0,0 +1,123 @@
+/**
+ * StorageBenchmark.java
+ * Implements the StorageBenchmark class
+ * A StorageBenchmark measures saving and loading track files
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackCodec;
+import org.y20k.trackbook.helpers.TrackCompression;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * StorageBenchmark class
+ * Saves write the file formats of StorageHelper.saveTrack - binary and compressed binary (level 1).
+ * Loads go through StorageHelper.readTrackFromFile, which picks the format by the magic number.
+ * The legacy JSON format is only read by the app - see JsonBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+
+    /* Main class variables */
+    private Track mTrack;
+    private File mBinaryFile;
+    private File mCompressedFile;
+    private File mSaveFile;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mTrack = new TrackFactory(size).createTrack();
+        mBinaryFile = File.createTempFile("benchmark", ".trackbook");
+        mCompressedFile = File.createTempFile("benchmark", ".trackbook");
+        mSaveFile = File.createTempFile("benchmark", ".trackbook");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mBinaryFile)))) {
+            TrackCodec.writeTrack(mTrack, out);
+        }
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(mCompressedFile))) {
+            TrackCompression.writeTrack(mTrack, out, 1);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mBinaryFile.delete();
+        mCompressedFile.delete();
+        mSaveFile.delete();
+    }
+
+
+    @Benchmark
+    public long saveBinary() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mSaveFile)))) {
+            TrackCodec.writeTrack(mTrack, out);
+        }
+        return mSaveFile.length();
+    }
+
+
+    @Benchmark
+    public long saveCompressed() throws IOException {
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(mSaveFile))) {
+            TrackCompression.writeTrack(mTrack, out, 1);
+        }
+        return mSaveFile.length();
+    }
+
+
+    @Benchmark
+    public Track loadBinary() {
+        return StorageHelper.readTrackFromFile(mBinaryFile);
+    }
+
+
+    @Benchmark
+    public Track loadCompressed() {
+        return StorageHelper.readTrackFromFile(mCompressedFile);
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * TrackBenchmark.java
+ * Implements the TrackBenchmark class
+ * A TrackBenchmark measures adding WayPoints, distance accumulation and stopover detection
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * TrackBenchmark class
+ * One operation handles a whole track of the given size.
+ * addWayPoints includes distance accumulation and stopover detection - restoreWayPoints
+ * appends the same columns without them, so the difference is their share. accumulateDistance
+ * and detectStopOvers append the same columns with one of the two steps each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+
+    /* Main class variables */
+    private TrackFactory mFactory;
+    private Location mLocation;
+
+
+    @Setup
+    public void setup() {
+        mFactory = new TrackFactory(size);
+        mLocation = new Location(LocationManager.GPS_PROVIDER);
+    }
+
+
+    /* Records a track WayPoint by WayPoint - one reused Location, as in ImportHelper */
+    @Benchmark
+    public Track addWayPoints() {
+        Track track = new Track();
+        for (int i = 0; i < size; i++) {
+            mFactory.fill(mLocation, i);
+            track.addWayPoint(mLocation);
+        }
+        return track;
+    }
+
+
+    /* Appends the same WayPoints without distance accumulation and stopover detection */
+    @Benchmark
+    public Track restoreWayPoints() {
+        Track track = new Track();
+        double[] latitudes = mFactory.getLatitudes();
+        double[] longitudes = mFactory.getLongitudes();
+        long[] elapsedRealtimeNanos = mFactory.getElapsedRealtimeNanos();
+        for (int i = 0; i < size; i++) {
+            track.restoreWayPoint(latitudes[i], longitudes[i], elapsedRealtimeNanos[i] / 1000000L, elapsedRealtimeNanos[i], 8f, 40f, 0f, (byte) 0, (byte) 0, (byte) 0);
+        }
+        return track;
+    }
+
+
+    /* Appends the same WayPoints with distance accumulation only - Track.getDistanceToLastWayPoint, as used by addWayPoint */
+    @Benchmark
+    public Track accumulateDistance() {
+        Track track = new Track();
+        double[] latitudes = mFactory.getLatitudes();
+        double[] longitudes = mFactory.getLongitudes();
+        long[] elapsedRealtimeNanos = mFactory.getElapsedRealtimeNanos();
+        float trackLength = 0f;
+        for (int i = 0; i < size; i++) {
+            trackLength += track.getDistanceToLastWayPoint(latitudes[i], longitudes[i]);
+            track.restoreWayPoint(latitudes[i], longitudes[i], elapsedRealtimeNanos[i] / 1000000L, elapsedRealtimeNanos[i], 8f, 40f, trackLength, (byte) 0, (byte) 0, (byte) 0);
+        }
+        return track;
+    }
+
+
+    /* Appends the same WayPoints with stopover detection only - Track.markStopOver, as used by addWayPoint */
+    @Benchmark
+    public Track detectStopOvers() {
+        Track track = new Track();
+        double[] latitudes = mFactory.getLatitudes();
+        double[] longitudes = mFactory.getLongitudes();
+        long[] elapsedRealtimeNanos = mFactory.getElapsedRealtimeNanos();
+        for (int i = 0; i < size; i++) {
+            track.markStopOver(elapsedRealtimeNanos[i]);
+            track.restoreWayPoint(latitudes[i], longitudes[i], elapsedRealtimeNanos[i] / 1000000L, elapsedRealtimeNanos[i], 8f, 40f, 0f, (byte) 0, (byte) 0, (byte) 0);
+        }
+        return track;
+    }
+
+}
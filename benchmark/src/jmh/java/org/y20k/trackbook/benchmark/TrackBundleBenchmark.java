@@ -0,0 +1,84 @@
+/**
+ * TrackBundleBenchmark.java
+ * Implements the TrackBundleBenchmark class
+ * A TrackBundleBenchmark measures creating track bundles and building their names
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.TrackBundle;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * TrackBundleBenchmark class
+ * createBundle scans a track of the given size for its bounding box (done whenever a track is stored).
+ * trackName formats the name shown in the dropdown - a fresh bundle per operation, so the
+ * cached name is never hit. It does not depend on the track size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackBundleBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+
+    /* Main class variables */
+    private Track mTrack;
+    private File mFile;
+    private Date mRecordingStart;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mTrack = new TrackFactory(size).createTrack();
+        mFile = new File("2017-07-14-08-00-00.trackbook");
+        mRecordingStart = mTrack.getRecordingStart();
+    }
+
+
+    @Benchmark
+    public TrackBundle createBundle() {
+        return new TrackBundle(mFile, mTrack);
+    }
+
+
+    @Benchmark
+    public String trackName() {
+        TrackBundle trackBundle = new TrackBundle(mFile, 0, mRecordingStart, mRecordingStart, 0, 0f, 0f, 0, 0, 0, 0, 0);
+        return trackBundle.getTrackName();
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * TrackFactory.java
+ * Implements the TrackFactory class
+ * A TrackFactory creates synthetic tracks of a given size for the benchmarks
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.core.WayPoint;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+
+/**
+ * TrackFactory class
+ * WayPoints are 12 seconds and about 17 meters apart, with gps noise of a few meters.
+ * Every STOPOVER_INTERVAL WayPoints there is a gap of six minutes, which makes a stopover.
+ */
+final class TrackFactory {
+
+    /* Layout of synthetic tracks */
+    private static final int STOPOVER_INTERVAL = 500;
+    private static final long WAYPOINT_INTERVAL = 12000000000L; // nanoseconds
+    private static final long STOPOVER_GAP = 360000000000L; // nanoseconds
+    private static final double STEP = 0.00015; // degrees latitude
+
+
+    /* Main class variables */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final long[] mElapsedRealtimeNanos;
+
+
+    /* Constructor - computes the positions of all WayPoints */
+    TrackFactory(int size) {
+        Random random = new Random(size);
+        mLatitudes = new double[size];
+        mLongitudes = new double[size];
+        mElapsedRealtimeNanos = new long[size];
+        long elapsedRealtimeNanos = 0;
+        for (int i = 0; i < size; i++) {
+            mLatitudes[i] = 52.5 + i * STEP + random.nextGaussian() * 0.00003;
+            mLongitudes[i] = 13.4 + random.nextGaussian() * 0.00005;
+            mElapsedRealtimeNanos[i] = elapsedRealtimeNanos;
+            elapsedRealtimeNanos += (i + 1) % STOPOVER_INTERVAL == 0 ? STOPOVER_GAP : WAYPOINT_INTERVAL;
+        }
+    }
+
+
+    /* Getter for number of WayPoints */
+    int getSize() {
+        return mLatitudes.length;
+    }
+
+
+    /* Getters for the columns */
+    double[] getLatitudes() {
+        return mLatitudes;
+    }
+
+    double[] getLongitudes() {
+        return mLongitudes;
+    }
+
+    long[] getElapsedRealtimeNanos() {
+        return mElapsedRealtimeNanos;
+    }
+
+
+    /* Sets given location to the WayPoint at index - one Location object can be reused for all WayPoints */
+    void fill(Location location, int index) {
+        location.reset();
+        location.setProvider(LocationManager.GPS_PROVIDER);
+        location.setLatitude(mLatitudes[index]);
+        location.setLongitude(mLongitudes[index]);
+        location.setAltitude(40.0);
+        location.setAccuracy(8f);
+        location.setElapsedRealtimeNanos(mElapsedRealtimeNanos[index]);
+        location.setTime(1500000000000L + mElapsedRealtimeNanos[index] / 1000000L);
+    }
+
+
+    /* Creates a track with all WayPoints - distances and stopovers computed as during a recording */
+    Track createTrack() {
+        Track track = new Track();
+        track.ensureCapacity(getSize());
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        for (int i = 0; i < getSize(); i++) {
+            fill(location, i);
+            track.addWayPoint(location);
+        }
+        track.setRecordingEnd();
+        return track;
+    }
+
+
+    /* Writes a track with all WayPoints to given file - the way older versions of the app stored tracks (GSON, all WayPoints as objects) */
+    void writeLegacyJson(File file) throws IOException {
+        Track track = createTrack();
+        Gson gson = new GsonBuilder().setDateFormat("M/d/yy hh:mm a").create();
+        JsonArray wayPoints = new JsonArray();
+        for (WayPoint wayPoint : track.getWayPoints()) {
+            wayPoints.add(gson.toJsonTree(wayPoint));
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("mTrackFormatVersion", 1);
+        json.add("mWayPoints", wayPoints);
+        json.addProperty("mTrackLength", track.getTrackLength());
+        json.addProperty("mDuration", track.getDuration());
+        json.addProperty("mStepCount", track.getStepCount());
+        json.add("mRecordingStart", gson.toJsonTree(track.getRecordingStart()));
+        json.add("mRecordingStop", gson.toJsonTree(track.getRecordingStop()));
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)))) {
+            gson.toJson(json, writer);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * TrackIndexBenchmark.java
+ * Implements the TrackIndexBenchmark class
+ * A TrackIndexBenchmark measures building and querying the spatial index of large tracks
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.y20k.trackbook.core.Track;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * TrackIndexBenchmark class
+ * Tracks wander through an area of about 20 x 20 km in steps of about 17 meters, so large tracks
+ * cross themselves many times - like months of recordings around home.
+ * buildIndex measures the first query of a fresh track, which indexes all WayPoints.
+ * nearestWayPoint is a tap on the map (TrackPathOverlay.onSingleTapConfirmed) - a position near
+ * the track, searched within about 30 meters. findWayPoints is the visible part of the track for a
+ * map viewport of about 1 x 1 km (TrackPathOverlay.draw). Each query has a linear scan over all
+ * WayPoints as its counterpart.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackIndexBenchmark {
+
+    /* Number of WayPoints */
+    @Param({"100000", "1000000"})
+    public int size;
+
+
+    /* Layout of tracks and queries */
+    private static final double STEP = 0.00015; // degrees latitude
+    private static final double AREA_NORTH = 52.6;
+    private static final double AREA_SOUTH = 52.4;
+    private static final double AREA_EAST = 13.55;
+    private static final double AREA_WEST = 13.25;
+    private static final double TAP_DISTANCE = 0.0003; // degrees
+    private static final double VIEWPORT_HEIGHT = 0.01; // degrees
+    private static final double VIEWPORT_WIDTH = 0.016; // degrees
+    private static final int QUERY_COUNT = 1024;
+
+
+    /* Main class variables */
+    private Track mTrack;
+    private double[] mQueryLatitudes;
+    private double[] mQueryLongitudes;
+    private BitSet mResult;
+    private int mQuery;
+
+
+    /**
+     * Inner class: A track that has not been indexed yet - created before every invocation of buildIndex
+     */
+    @State(Scope.Thread)
+    public static class FreshTrack {
+
+        /* Number of WayPoints */
+        @Param({"100000", "1000000"})
+        public int size;
+
+        private Track mTrack;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            mTrack = createTrack(size);
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mTrack = createTrack(size);
+        mTrack.getIndex().findNearestWayPoint(0, 0, 0);
+        mResult = new BitSet(size);
+
+        // query positions close to random WayPoints
+        Random random = new Random(size);
+        mQueryLatitudes = new double[QUERY_COUNT];
+        mQueryLongitudes = new double[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            int index = random.nextInt(size);
+            mQueryLatitudes[i] = mTrack.getLatitude(index) + random.nextGaussian() * TAP_DISTANCE / 2;
+            mQueryLongitudes[i] = mTrack.getLongitude(index) + random.nextGaussian() * TAP_DISTANCE / 2;
+        }
+    }
+
+
+    /* Indexes a track of the given size - the first query of a track indexes all its WayPoints */
+    @Benchmark
+    public int buildIndex(FreshTrack freshTrack) {
+        return freshTrack.mTrack.getIndex().findNearestWayPoint(mQueryLatitudes[0], mQueryLongitudes[0], TAP_DISTANCE);
+    }
+
+
+    @Benchmark
+    public int nearestWayPoint() {
+        int query = nextQuery();
+        return mTrack.getIndex().findNearestWayPoint(mQueryLatitudes[query], mQueryLongitudes[query], TAP_DISTANCE);
+    }
+
+
+    @Benchmark
+    public int nearestWayPointLinearScan() {
+        int query = nextQuery();
+        double latitude = mQueryLatitudes[query];
+        double longitude = mQueryLongitudes[query];
+        double longitudeScale = Math.cos(Math.toRadians(latitude));
+        int nearestIndex = -1;
+        double nearestDistance = TAP_DISTANCE;
+        for (int i = 0; i < size; i++) {
+            double deltaLatitude = mTrack.getLatitude(i) - latitude;
+            double deltaLongitude = (mTrack.getLongitude(i) - longitude) * longitudeScale;
+            double distance = Math.sqrt(deltaLatitude * deltaLatitude + deltaLongitude * deltaLongitude);
+            if (distance <= nearestDistance) {
+                nearestDistance = distance;
+                nearestIndex = i;
+            }
+        }
+        return nearestIndex;
+    }
+
+
+    @Benchmark
+    public int findWayPoints() {
+        int query = nextQuery();
+        double north = mQueryLatitudes[query] + VIEWPORT_HEIGHT / 2;
+        double east = mQueryLongitudes[query] + VIEWPORT_WIDTH / 2;
+        mTrack.getIndex().findWayPoints(north, east, north - VIEWPORT_HEIGHT, east - VIEWPORT_WIDTH, mResult);
+        return mResult.cardinality();
+    }
+
+
+    @Benchmark
+    public int findWayPointsLinearScan() {
+        int query = nextQuery();
+        double north = mQueryLatitudes[query] + VIEWPORT_HEIGHT / 2;
+        double east = mQueryLongitudes[query] + VIEWPORT_WIDTH / 2;
+        double south = north - VIEWPORT_HEIGHT;
+        double west = east - VIEWPORT_WIDTH;
+        mResult.clear();
+        boolean previousInside = false;
+        for (int i = 0; i < size; i++) {
+            double latitude = mTrack.getLatitude(i);
+            double longitude = mTrack.getLongitude(i);
+            boolean inside = latitude <= north && latitude >= south && longitude <= east && longitude >= west;
+            if (inside || previousInside) {
+                // WayPoint i stands for the segment from its predecessor - as in TrackIndex
+                mResult.set(i);
+            }
+            previousInside = inside;
+        }
+        return mResult.cardinality();
+    }
+
+
+    /* Cycles through the query positions */
+    private int nextQuery() {
+        mQuery = (mQuery + 1) % QUERY_COUNT;
+        return mQuery;
+    }
+
+
+    /* Creates a track that wanders through the area - a random walk, turning back at its borders */
+    private static Track createTrack(int size) {
+        Random random = new Random(size);
+        Track track = new Track(2, 0f, 0, 0f, new Date(1500000000000L), null);
+        track.ensureCapacity(size);
+        double latitude = (AREA_NORTH + AREA_SOUTH) / 2;
+        double longitude = (AREA_EAST + AREA_WEST) / 2;
+        double heading = 0;
+        for (int i = 0; i < size; i++) {
+            heading += random.nextGaussian() * 0.3;
+            latitude += Math.cos(heading) * STEP;
+            longitude += Math.sin(heading) * STEP * 1.65;
+            if (latitude > AREA_NORTH || latitude < AREA_SOUTH || longitude > AREA_EAST || longitude < AREA_WEST) {
+                heading += Math.PI;
+                latitude = Math.max(AREA_SOUTH, Math.min(AREA_NORTH, latitude));
+                longitude = Math.max(AREA_WEST, Math.min(AREA_EAST, longitude));
+            }
+            track.restoreWayPoint(latitude, longitude, 1500000000000L + i * 12000L, i * 12000000000L, 8f, 40f, 0f, (byte) 0, (byte) 0, (byte) 0);
+        }
+        return track;
+    }
+
+}
@@ -0,0 +1,472 @@
+/**
+ * TrackReplay.java
+ * Implements the TrackReplay class
+ * A TrackReplay drives the recording pipeline with recorded or simulated location fixes
+ *
+ * This file is part of
+ * TRACKBOOK - Movement Recorder for Android
+ *
+ * Copyright (c) 2016-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ *
+ * Trackbook uses osmdroid - OpenStreetMap-Tools for Android
+ * https://github.com/osmdroid/osmdroid
+ */
+
+package org.y20k.trackbook.benchmark;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.y20k.trackbook.core.Track;
+import org.y20k.trackbook.helpers.ImportHelper;
+import org.y20k.trackbook.helpers.LocationFilter;
+import org.y20k.trackbook.helpers.LocationHelper;
+import org.y20k.trackbook.helpers.LocationScheduler;
+import org.y20k.trackbook.helpers.StorageHelper;
+import org.y20k.trackbook.helpers.TrackRecorder;
+import org.y20k.trackbook.helpers.TrackbookKeys;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * TrackReplay class
+ * Runs on the JVM as fast as possible - no radios, no timers. Every fix goes through TrackRecorder
+ * and LocationScheduler like in TrackerService, and the timer tick is replayed every 15 seconds.
+ *
+ * replay()    feeds the points of a .trackbook or GPX file as fixes, in their recorded order.
+ *             Adaptive replays drop the fixes LocationManager would not have delivered for the
+ *             requested interval and distance - while gps is off, gps points are delivered as
+ *             network fixes.
+ * simulate()  moves along the track second by second - positions between points are interpolated,
+ *             during stopovers the position stays put - and simulated providers deliver noisy fixes.
+ *
+ * Radio model: while gps is requested at intervals up to GPS_DUTY_CYCLE_INTERVAL, the receiver
+ * stays on. For longer intervals it is switched off between fixes and needs GPS_WARM_START per fix.
+ * Network fixes are rate-limited to NETWORK_MINIMUM_INTERVAL. Passive fixes only come from other
+ * apps - the replay assumes there are none.
+ *
+ * Run with: ./gradlew :benchmark:replay -Ptracks=<.trackbook or GPX files, separated by commas>
+ */
+public class TrackReplay implements TrackbookKeys {
+
+    /* Simulated providers */
+    private static final long STEP = ONE_NANOSECOND; // one second
+    private static final long TIMER_INTERVAL = FIFTEEN_SECONDS_IN_MILLISECONDS * 1000000L;
+    private static final long GPS_MINIMUM_INTERVAL = ONE_NANOSECOND;
+    private static final long GPS_WARM_START = 6 * ONE_NANOSECOND;
+    private static final long GPS_DUTY_CYCLE_INTERVAL = 10 * ONE_NANOSECOND;
+    private static final long NETWORK_MINIMUM_INTERVAL = 20 * ONE_NANOSECOND;
+    private static final float GPS_ACCURACY = 8f; // meters
+    private static final float NETWORK_ACCURACY = 40f; // meters
+    private static final long STOPOVER_TRAVEL_TIME = 60 * ONE_NANOSECOND; // time spent moving after a stopover
+    private static final double METERS_PER_DEGREE = 111195.0;
+
+
+    /* Main class variables */
+    private final Track mSourceTrack;
+    private final boolean mAdaptive;
+    private final boolean mFiltered;
+    private final Random mRandom;
+    private final float[] mDistanceResult = new float[1];
+    private double mLatitude;
+    private double mLongitude;
+    private float mSpeed;
+    private long mLastGpsFix;
+    private double mLastGpsLatitude;
+    private double mLastGpsLongitude;
+    private long mLastNetworkFix;
+    private double mLastNetworkLatitude;
+    private double mLastNetworkLongitude;
+    private long mGpsOnSince;
+    private long mLastTimerTick;
+    private Result mResult;
+    private TrackRecorder mRecorder;
+    private LocationScheduler mScheduler;
+
+
+    /* Constructor - adaptive replays use LocationScheduler, others request all fixes like before (interval and distance 0) */
+    public TrackReplay(Track sourceTrack, boolean adaptive) {
+        this(sourceTrack, adaptive, false);
+    }
+
+
+    /* Constructor - filtered replays smooth fixes with LocationFilter */
+    public TrackReplay(Track sourceTrack, boolean adaptive, boolean filtered) {
+        mSourceTrack = sourceTrack;
+        mAdaptive = adaptive;
+        mFiltered = filtered;
+        mRandom = new Random(sourceTrack.getSize());
+    }
+
+
+    /* Reads a .trackbook or GPX file - returns null if the file could not be read */
+    public static Track loadTrack(File file) {
+        if (!file.getName().endsWith(FILE_TYPE_GPX_EXTENSION)) {
+            return StorageHelper.readTrackFromFile(file);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            // the kxml2 parser of android-all needs the Android runtime - the replay task puts a plain kxml2 first on the classpath
+            XmlPullParser parser = new KXmlParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(in, null);
+            return ImportHelper.readGpx(parser);
+        } catch (Exception e) {
+            System.err.println("Unable to read GPX file: " + file.toString() + " (" + e.toString() + ")");
+            return null;
+        }
+    }
+
+
+    /* Replays the points of the source track as fixes - returns the statistics of the replayed recording */
+    public Result replay() {
+        int size = mSourceTrack.getSize();
+        if (size == 0) {
+            return new Result();
+        }
+        long start = mSourceTrack.getElapsedRealtimeNanos(0);
+        startRecording(start);
+
+        byte networkProviderId = LocationHelper.getProviderId(LocationManager.NETWORK_PROVIDER);
+        long previous = start;
+        for (int i = 0; i < size; i++) {
+            long now = Math.max(previous, mSourceTrack.getElapsedRealtimeNanos(i));
+            advanceTime(previous, now);
+            previous = now;
+
+            mLatitude = mSourceTrack.getLatitude(i);
+            mLongitude = mSourceTrack.getLongitude(i);
+            boolean gps = mSourceTrack.getProviderId(i) != networkProviderId;
+            float accuracy = mSourceTrack.getAccuracy(i);
+            if (gps && mAdaptive && mScheduler.getGpsInterval() == 0) {
+                // gps is off - recorded gps points stand in for the network fixes of a stopover
+                gps = false;
+                accuracy = Math.max(accuracy, NETWORK_ACCURACY);
+            }
+            if (!isDelivered(gps, now)) {
+                mResult.mDroppedFixes++;
+                continue;
+            }
+
+            Location location = new Location(gps ? LocationManager.GPS_PROVIDER : LocationManager.NETWORK_PROVIDER);
+            location.setLatitude(mLatitude);
+            location.setLongitude(mLongitude);
+            location.setAccuracy(accuracy);
+            location.setAltitude(mSourceTrack.getAltitude(i));
+            location.setTime(mSourceTrack.getTime(i));
+            location.setElapsedRealtimeNanos(now);
+            deliver(location, gps);
+        }
+
+        return finishRecording(previous - start);
+    }
+
+
+    /* Moves along the source track with simulated providers - returns the statistics of the simulated recording */
+    public Result simulate() {
+        int size = mSourceTrack.getSize();
+        if (size < 2) {
+            return new Result();
+        }
+        long start = mSourceTrack.getElapsedRealtimeNanos(0);
+        long end = mSourceTrack.getElapsedRealtimeNanos(size - 1);
+        startRecording(start);
+
+        int segment = 0;
+        for (long now = start; now <= end; now += STEP) {
+            // move along the source track
+            while (segment < size - 2 && mSourceTrack.getElapsedRealtimeNanos(segment + 1) <= now) {
+                segment++;
+            }
+            interpolate(segment, now);
+            advanceTime(now - STEP, now);
+
+            if (isDelivered(true, now)) {
+                deliver(createFix(LocationManager.GPS_PROVIDER, now, GPS_ACCURACY, true), true);
+            }
+            if (isDelivered(false, now)) {
+                deliver(createFix(LocationManager.NETWORK_PROVIDER, now, NETWORK_ACCURACY, false), false);
+            }
+        }
+
+        return finishRecording(end - start);
+    }
+
+
+    /* Sets up recorder and scheduler for a new run */
+    private void startRecording(long start) {
+        Track track = new Track();
+        mResult = new Result();
+        mRecorder = new TrackRecorder(track, mFiltered ? new LocationFilter() : null);
+        mScheduler = new LocationScheduler(track, true, true);
+        mLastGpsFix = Long.MIN_VALUE / 2;
+        mLastGpsLatitude = Double.NaN;
+        mLastNetworkFix = Long.MIN_VALUE / 2;
+        mLastNetworkLatitude = Double.NaN;
+        mGpsOnSince = start;
+        mLastTimerTick = start;
+    }
+
+
+    /* Collects the statistics of a finished run */
+    private Result finishRecording(long duration) {
+        Track track = mRecorder.getTrack();
+        Result result = mResult;
+        result.mDuration = duration;
+        result.mWayPoints = track.getSize();
+        result.mTrackLength = track.getTrackLength();
+        result.mSourceTrackLength = mSourceTrack.getTrackLength();
+        for (int i = 0; i < track.getSize(); i++) {
+            if (track.getIsStopOver(i)) {
+                result.mStopOvers++;
+            }
+        }
+        mResult = null;
+        mRecorder = null;
+        mScheduler = null;
+        return result;
+    }
+
+
+    /* Accounts for the time between previous and now - gps time, stationary time and timer ticks */
+    private void advanceTime(long previous, long now) {
+        if (now <= previous) {
+            return;
+        }
+        long gpsInterval = getGpsInterval();
+        if (gpsInterval == 0) {
+            mGpsOnSince = Long.MAX_VALUE;
+        } else {
+            if (mGpsOnSince == Long.MAX_VALUE) {
+                // a receiver switched on needs a warm start before its first fix
+                mGpsOnSince = previous;
+            }
+            if (gpsInterval <= GPS_DUTY_CYCLE_INTERVAL) {
+                mResult.mGpsOnTime += now - previous;
+            }
+        }
+        if (mAdaptive && mScheduler.getMode() == LocationScheduler.MODE_STATIONARY) {
+            mResult.mStationaryTime += now - previous;
+        }
+
+        // timer tick of TrackerService
+        while (now - mLastTimerTick >= TIMER_INTERVAL) {
+            mLastTimerTick += TIMER_INTERVAL;
+            if (mAdaptive && mScheduler.onTimer(mLastTimerTick)) {
+                mResult.mRequestChanges++;
+            }
+        }
+    }
+
+
+    /* Checks if LocationManager would deliver a fix of given provider at the current position - and remembers it */
+    private boolean isDelivered(boolean gps, long now) {
+        if (gps) {
+            long interval = getGpsInterval();
+            float distance = mAdaptive ? mScheduler.getGpsDistance() : 0f;
+            if (interval == 0 || now - mGpsOnSince < GPS_WARM_START || now - mLastGpsFix < interval
+                    || (!Double.isNaN(mLastGpsLatitude) && distanceTo(mLastGpsLatitude, mLastGpsLongitude) < distance)) {
+                return false;
+            }
+            mLastGpsFix = now;
+            mLastGpsLatitude = mLatitude;
+            mLastGpsLongitude = mLongitude;
+        } else {
+            long interval = mAdaptive ? mScheduler.getNetworkInterval() * 1000000L : NETWORK_MINIMUM_INTERVAL;
+            float distance = mAdaptive ? mScheduler.getNetworkDistance() : 0f;
+            if (interval == 0 || now - mLastNetworkFix < Math.max(interval, NETWORK_MINIMUM_INTERVAL)
+                    || (!Double.isNaN(mLastNetworkLatitude) && distanceTo(mLastNetworkLatitude, mLastNetworkLongitude) < distance)) {
+                return false;
+            }
+            mLastNetworkFix = now;
+            mLastNetworkLatitude = mLatitude;
+            mLastNetworkLongitude = mLongitude;
+        }
+        return true;
+    }
+
+
+    /* Gets requested gps interval in nanoseconds - 0 if gps is off */
+    private long getGpsInterval() {
+        return mAdaptive ? Math.max(mScheduler.getGpsInterval() * 1000000L, 0) : GPS_MINIMUM_INTERVAL;
+    }
+
+
+    /* Hands a fix to recorder and scheduler - and measures the time they take */
+    private void deliver(Location location, boolean gps) {
+        boolean dutyCycled = getGpsInterval() > GPS_DUTY_CYCLE_INTERVAL;
+        long startTime = System.nanoTime();
+        // scheduler first - like TrackerService, it sees the fix before the filter smoothes it
+        boolean requestsChanged = mAdaptive && mScheduler.onLocationChanged(location);
+        mRecorder.onLocationChanged(location);
+        long processingTime = System.nanoTime() - startTime;
+
+        if (gps) {
+            mResult.mGpsFixes++;
+            if (dutyCycled) {
+                mResult.mGpsOnTime += GPS_WARM_START;
+            }
+        } else {
+            mResult.mNetworkFixes++;
+        }
+        if (requestsChanged) {
+            mResult.mRequestChanges++;
+        }
+        mResult.mProcessingTime += processingTime;
+        mResult.mMaxProcessingTime = Math.max(mResult.mMaxProcessingTime, processingTime);
+    }
+
+
+    /* Sets the simulated position at given time */
+    private void interpolate(int segment, long now) {
+        long startTime = mSourceTrack.getElapsedRealtimeNanos(segment);
+        long endTime = mSourceTrack.getElapsedRealtimeNanos(segment + 1);
+        // after a stopover the position stays put until shortly before the next WayPoint
+        if (LocationHelper.isStopOver(startTime, endTime)) {
+            startTime = Math.max(startTime, endTime - STOPOVER_TRAVEL_TIME);
+        }
+        double fraction = endTime > startTime ? Math.max(0, Math.min(1, (double) (now - startTime) / (endTime - startTime))) : 1;
+        double startLatitude = mSourceTrack.getLatitude(segment);
+        double startLongitude = mSourceTrack.getLongitude(segment);
+        double endLatitude = mSourceTrack.getLatitude(segment + 1);
+        double endLongitude = mSourceTrack.getLongitude(segment + 1);
+        mLatitude = startLatitude + fraction * (endLatitude - startLatitude);
+        mLongitude = startLongitude + fraction * (endLongitude - startLongitude);
+        if (now >= startTime && endTime > startTime) {
+            Location.distanceBetween(startLatitude, startLongitude, endLatitude, endLongitude, mDistanceResult);
+            mSpeed = mDistanceResult[0] / ((float) (endTime - startTime) / ONE_NANOSECOND);
+        } else {
+            mSpeed = 0f;
+        }
+    }
+
+
+    /* Creates a fix at the simulated position - with noise matching the accuracy of the provider */
+    private Location createFix(String provider, long now, float accuracy, boolean hasSpeed) {
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(mLatitude));
+        Location location = new Location(provider);
+        location.setLatitude(mLatitude + mRandom.nextGaussian() * accuracy / 2 / METERS_PER_DEGREE);
+        location.setLongitude(mLongitude + mRandom.nextGaussian() * accuracy / 2 / metersPerDegreeLongitude);
+        location.setAccuracy(accuracy);
+        location.setElapsedRealtimeNanos(now);
+        location.setTime(mSourceTrack.getTime(0) + (now - mSourceTrack.getElapsedRealtimeNanos(0)) / 1000000L);
+        if (hasSpeed) {
+            location.setSpeed(mSpeed);
+        }
+        return location;
+    }
+
+
+    /* Calculates distance between given position and the current position */
+    private float distanceTo(double latitude, double longitude) {
+        Location.distanceBetween(latitude, longitude, mLatitude, mLongitude, mDistanceResult);
+        return mDistanceResult[0];
+    }
+
+
+    /* Replays the given .trackbook or GPX files - fixed and adaptive requests, with and without filter */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: ./gradlew :benchmark:replay -Ptracks=<.trackbook or GPX files, separated by commas>");
+        }
+        for (String fileName : args) {
+            Track track = loadTrack(new File(fileName));
+            if (track == null) {
+                System.out.println(fileName + ": unreadable");
+                continue;
+            }
+            System.out.println(fileName + ": " + track.getSize() + " points");
+            System.out.println("  replay             " + new TrackReplay(track, false, false).replay());
+            System.out.println("  replay, filtered   " + new TrackReplay(track, false, true).replay());
+            System.out.println("  adaptive           " + new TrackReplay(track, true, false).replay());
+            System.out.println("  adaptive, filtered " + new TrackReplay(track, true, true).replay());
+            System.out.println("  simulated          " + new TrackReplay(track, false, false).simulate());
+            System.out.println("  simulated adaptive " + new TrackReplay(track, true, true).simulate());
+        }
+    }
+
+
+    /**
+     * Inner class: Statistics of a replay
+     */
+    public static final class Result {
+
+        private long mDuration;
+        private int mGpsFixes;
+        private int mNetworkFixes;
+        private int mDroppedFixes;
+        private int mRequestChanges;
+        private long mGpsOnTime;
+        private long mStationaryTime;
+        private long mProcessingTime;
+        private long mMaxProcessingTime;
+        private int mWayPoints;
+        private int mStopOvers;
+        private float mTrackLength;
+        private float mSourceTrackLength;
+
+        /* Getters */
+        public int getFixesProcessed() {
+            return mGpsFixes + mNetworkFixes;
+        }
+
+        public int getFixesDropped() {
+            return mDroppedFixes;
+        }
+
+        public float getFixesPerHour() {
+            return perHour(getFixesProcessed());
+        }
+
+        public float getGpsOnSecondsPerHour() {
+            return perHour((float) mGpsOnTime / ONE_NANOSECOND);
+        }
+
+        public int getWayPoints() {
+            return mWayPoints;
+        }
+
+        public int getStopOvers() {
+            return mStopOvers;
+        }
+
+        public float getTrackLength() {
+            return mTrackLength;
+        }
+
+        public long getAverageProcessingNanos() {
+            return getFixesProcessed() > 0 ? mProcessingTime / getFixesProcessed() : 0;
+        }
+
+        public long getMaxProcessingNanos() {
+            return mMaxProcessingTime;
+        }
+
+        private float perHour(float value) {
+            float hours = (float) mDuration / ONE_NANOSECOND / 3600f;
+            return hours > 0 ? value / hours : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.2f h | fixes: %d (gps %d, network %d, dropped %d) = %.0f/h | gps on: %.0f s/h | stationary: %.0f%% | request changes: %d"
+                            + " | WayPoints: %d | stopovers: %d | length: %.0f m (source %.0f m) | per fix: %d ns avg, %d ns max",
+                    (float) mDuration / ONE_NANOSECOND / 3600f, getFixesProcessed(), mGpsFixes, mNetworkFixes, mDroppedFixes, getFixesPerHour(), getGpsOnSecondsPerHour(),
+                    mDuration > 0 ? 100f * mStationaryTime / mDuration : 0f, mRequestChanges, mWayPoints, mStopOvers, mTrackLength, mSourceTrackLength,
+                    getAverageProcessingNanos(), mMaxProcessingTime);
+        }
+    }
+    /**
+     * End of inner class
+     */
+
+}